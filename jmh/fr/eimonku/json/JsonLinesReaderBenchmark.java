@@ -0,0 +1,81 @@
+package fr.eimonku.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.newBufferedReader;
+import static java.nio.file.Files.newOutputStream;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+
+// a file of document properties, one entry per line (as in the extractions file), read line by line as before or in
+// parallel chunks
+@State(Scope.Benchmark)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class JsonLinesReaderBenchmark {
+	private Path path;
+	private final ForkJoinPool singleThreadPool = new ForkJoinPool(1);
+
+	@Setup
+	public void setUp() throws IOException {
+		path = createTempFile("benchmark", ".jsonl");
+		try (final JsonLinesWriter w = new JsonLinesWriter(new BufferedOutputStream(newOutputStream(path)))) {
+			for (final Entry<String, Object> properties : Payloads.properties().entrySet()) {
+				final Map<String, Object> entry = new LinkedHashMap<>();
+				entry.put("id", Long.valueOf(properties.getKey()));
+				entry.put("key", "properties/1");
+				entry.put("value", properties.getValue());
+				w.append(entry);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		singleThreadPool.shutdown();
+		delete(path);
+	}
+
+	@Benchmark
+	public void readLineByLine(Blackhole blackhole) throws IOException, InvalidJsonException {
+		try (final BufferedReader r = newBufferedReader(path, UTF_8)) {
+			final SymbolTable symbols = new SymbolTable();
+			String line;
+			while ((line = r.readLine()) != null) {
+				blackhole.consume(new JsonReader(new StringReader(line)).symbols(symbols).readMap());
+			}
+		}
+	}
+
+	@Benchmark
+	public void readChunksSingleThread(Blackhole blackhole) throws IOException, InvalidJsonException {
+		new JsonLinesReader(path).pool(singleThreadPool).symbols(new SymbolTable()).read(blackhole::consume);
+	}
+
+	@Benchmark
+	public void readChunksInParallel(Blackhole blackhole) throws IOException, InvalidJsonException {
+		new JsonLinesReader(path).symbols(new SymbolTable()).read(blackhole::consume);
+	}
+}
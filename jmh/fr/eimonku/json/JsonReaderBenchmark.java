@@ -0,0 +1,116 @@
+package fr.eimonku.json;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonReader.JsonListListener;
+import fr.eimonku.json.JsonReader.JsonMapListener;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class JsonReaderBenchmark {
+	private String idsJson, propertiesJson, numbersJson, escapeHeavyStringJson;
+	private String[] numberJsons;
+
+	@Setup
+	public void setUp() {
+		idsJson = Payloads.json(Payloads.ids());
+		propertiesJson = Payloads.json(Payloads.properties());
+		final List<Object> numbers = Payloads.numbers();
+		numbersJson = Payloads.json(numbers);
+		escapeHeavyStringJson = Payloads.json(Payloads.escapeHeavyString());
+
+		numberJsons = new String[numbers.size()];
+		for (int i = 0; i < numberJsons.length; ++i) {
+			numberJsons[i] = Payloads.json(numbers.get(i));
+		}
+	}
+
+	@Benchmark
+	public Map<String, Object> readMapIds() throws IOException, InvalidJsonException {
+		return new JsonReader(new StringReader(idsJson)).readMap();
+	}
+
+	// ids are read as primitives
+	@Benchmark
+	public void readMapIdsWithListener(Blackhole blackhole) throws IOException, InvalidJsonException {
+		new JsonReader(new StringReader(idsJson)).readMap(new JsonMapListener() {
+			@Override
+			public void newLongEntry(String key, long value) {
+				blackhole.consume(key);
+				blackhole.consume(value);
+			}
+
+			@Override
+			public void newEntry(String key, Object value) {
+				blackhole.consume(key);
+				blackhole.consume(value);
+			}
+		});
+	}
+
+	@Benchmark
+	public Map<String, Object> readMapProperties() throws IOException, InvalidJsonException {
+		return new JsonReader(new StringReader(propertiesJson)).readMap();
+	}
+
+	// keys and "UTF-8" values are canonicalized
+	@Benchmark
+	public Map<String, Object> readMapPropertiesWithSymbols() throws IOException, InvalidJsonException {
+		return new JsonReader(new StringReader(propertiesJson)).symbols(new SymbolTable()).readMap();
+	}
+
+	@Benchmark
+	public List<Object> readList() throws IOException, InvalidJsonException {
+		return new JsonReader(new StringReader(numbersJson)).readList();
+	}
+
+	// numbers are read as primitives
+	@Benchmark
+	public void readListWithListener(Blackhole blackhole) throws IOException, InvalidJsonException {
+		new JsonReader(new StringReader(numbersJson)).readList(new JsonListListener() {
+			@Override
+			public void newLongElement(long element) {
+				blackhole.consume(element);
+			}
+
+			@Override
+			public void newDoubleElement(double element) {
+				blackhole.consume(element);
+			}
+
+			@Override
+			public void newElement(Object element) {
+				blackhole.consume(element);
+			}
+		});
+	}
+
+	@Benchmark
+	public String readString() throws IOException, InvalidJsonException {
+		return new JsonReader(new StringReader(escapeHeavyStringJson)).readString();
+	}
+
+	// one reader per number, as for small documents
+	@Benchmark
+	public void readNumber(Blackhole blackhole) throws IOException, InvalidJsonException {
+		for (final String numberJson : numberJsons) {
+			blackhole.consume(new JsonReader(new StringReader(numberJson)).readNumber());
+		}
+	}
+}
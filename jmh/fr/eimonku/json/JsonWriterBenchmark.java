@@ -0,0 +1,114 @@
+package fr.eimonku.json;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// the output is counted (not kept), so that only the writer is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class JsonWriterBenchmark {
+	private Map<String, Object> ids, properties;
+	private String escapeHeavyString;
+	private final CountingWriter writer = new CountingWriter();
+	private final CountingOutputStream os = new CountingOutputStream();
+	private final ByteBuffer buffer = ByteBuffer.allocate(8_192);
+
+	@Setup
+	public void setUp() {
+		ids = Payloads.ids();
+		properties = Payloads.properties();
+		escapeHeavyString = Payloads.escapeHeavyString();
+	}
+
+	@Benchmark
+	public long appendMapIds() throws IOException {
+		new JsonWriter(writer).appendMap(ids);
+		return writer.count;
+	}
+
+	@Benchmark
+	public long appendMapIdsIndented() throws IOException {
+		new JsonWriter(writer, 0).appendMap(ids);
+		return writer.count;
+	}
+
+	@Benchmark
+	public long appendMapProperties() throws IOException {
+		new JsonWriter(writer).appendMap(properties);
+		return writer.count;
+	}
+
+	// encoded to UTF-8 by the writer
+	@Benchmark
+	public long appendMapPropertiesToOutputStream() throws IOException {
+		new JsonWriter(os, buffer, -1).appendMap(properties);
+		return os.count;
+	}
+
+	@Benchmark
+	public long appendString() throws IOException {
+		new JsonWriter(writer).appendString(escapeHeavyString);
+		return writer.count;
+	}
+
+	@Benchmark
+	public long appendStringToOutputStream() throws IOException {
+		new JsonWriter(os, buffer, -1).appendString(escapeHeavyString);
+		return os.count;
+	}
+
+	private static class CountingWriter extends Writer {
+		long count = 0;
+
+		@Override
+		public void write(int c) {
+			++count;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
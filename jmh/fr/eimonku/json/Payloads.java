@@ -0,0 +1,73 @@
+package fr.eimonku.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// synthetic payloads, of the size and shape of the cache indexes and extractions
+final class Payloads {
+	static final int ENTRIES = 100_000;
+
+	private Payloads() {
+	}
+
+	// urls by ids, as in the ids file
+	static Map<String, Object> ids() {
+		final Map<String, Object> ids = new LinkedHashMap<>();
+		for (int i = 0; i < ENTRIES; ++i) {
+			ids.put(url(i), (long) i);
+		}
+		return ids;
+	}
+
+	// document properties by ids, as in the properties file
+	static Map<String, Object> properties() {
+		final Map<String, Object> properties = new LinkedHashMap<>();
+		for (int i = 0; i < ENTRIES; ++i) {
+			final Map<String, Object> documentProperties = new LinkedHashMap<>();
+			documentProperties.put("charsetName", "UTF-8");
+			documentProperties.put("baseUri", url(i));
+			documentProperties.put("etag", "\"" + Integer.toHexString(i * 31) + "\"");
+			documentProperties.put("fetchedAt", 1_500_000_000_000L + i);
+			properties.put(Integer.toString(i), documentProperties);
+		}
+		return properties;
+	}
+
+	// integral and decimal numbers
+	static List<Object> numbers() {
+		final Random random = new Random(0);
+		final List<Object> numbers = new ArrayList<>();
+		for (int i = 0; i < ENTRIES; ++i) {
+			numbers.add((i % 2 == 0) ? (Object) random.nextLong() : (Object) (random.nextDouble() * 1_000));
+		}
+		return numbers;
+	}
+
+	// extracted text, with quotes, line feeds, tabs, backslashes, control and non-ASCII characters
+	static String escapeHeavyString() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < ENTRIES / 10; ++i) {
+			sb.append("Île-de-France \"région\"\n\tC:\\Préfecture\u0001 ");
+		}
+		return sb.toString();
+	}
+
+	static String json(Object value) {
+		final StringWriter sw = new StringWriter();
+		try {
+			new JsonWriter(sw).appendObject(value);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return sw.toString();
+	}
+
+	private static String url(int i) {
+		return "https://fr.wikipedia.org/wiki/Article_" + i;
+	}
+}
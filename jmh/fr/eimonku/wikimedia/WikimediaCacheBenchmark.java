@@ -0,0 +1,109 @@
+package fr.eimonku.wikimedia;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.walkFileTree;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.openjdk.jmh.annotations.Mode.AverageTime;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// startup (index and journal loading) of a cache of synthetic documents, served without network
+@State(Scope.Benchmark)
+@BenchmarkMode(AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class WikimediaCacheBenchmark {
+	@Param("10000")
+	public int documents;
+
+	private final FetchScheduler scheduler = new FetchScheduler();
+	private final HttpEngine engine = new SyntheticHttpEngine();
+	private Path dir;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = createTempDirectory("wikimedia-cache");
+		try (final WikimediaCache cache = new WikimediaCache(dir, scheduler, engine, new WikimediaMetrics())) {
+			for (int i = 0; i < documents; ++i) {
+				cache.canonicalUrl("https://fr.wikipedia.org/wiki/Article_" + i);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Benchmark
+	public WikimediaCache startup() {
+		try (final WikimediaCache cache = new WikimediaCache(dir, scheduler, engine, new WikimediaMetrics())) {
+			return cache;
+		}
+	}
+
+	private static class SyntheticHttpEngine implements HttpEngine {
+		@Override
+		public <T> T get(String url, Supplier<Map<String, String>> headers, ResponseHandler<T> handler)
+		    throws IOException {
+			final Map<String, String> responseHeaders = new HashMap<>();
+			responseHeaders.put("content-type", "text/html; charset=UTF-8");
+			responseHeaders.put("etag", "\"" + Integer.toHexString(url.hashCode()) + "\"");
+
+			final StringBuilder sb = new StringBuilder("<html><head><title>").append(url).append("</title></head><body>");
+			for (int i = 0; i < 50; ++i) {
+				sb.append("<p>Paragraphe ").append(i).append(" de <a href=\"").append(url).append("\">l'article</a>.</p>");
+			}
+			final byte[] body = sb.append("</body></html>").toString().getBytes(UTF_8);
+
+			return handler.handle(new Response(url, 200, responseHeaders, new ByteArrayInputStream(body)));
+		}
+
+		@Override
+		public <T> CompletableFuture<T> getAsync(String url, Supplier<Map<String, String>> headers,
+		    ResponseHandler<T> handler) {
+			final CompletableFuture<T> future = new CompletableFuture<>();
+			try {
+				future.complete(get(url, headers, handler));
+			} catch (IOException | RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+			return future;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
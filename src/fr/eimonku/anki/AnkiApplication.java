@@ -3,17 +3,33 @@ package fr.eimonku.anki;
 import static java.lang.String.format;
 import static java.nio.file.Files.createDirectories;
 import static java.nio.file.Files.newBufferedWriter;
+import static org.apache.logging.log4j.LogManager.getLogger;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.stream.Stream;
 
+import org.apache.logging.log4j.Logger;
+
+import fr.eimonku.wikimedia.FetchScheduler;
+import fr.eimonku.wikimedia.HttpClientEngine;
+import fr.eimonku.wikimedia.HttpEngine;
+import fr.eimonku.wikimedia.SvgOptimizer;
 import fr.eimonku.wikimedia.WikimediaCache;
+import fr.eimonku.wikimedia.WikimediaMetrics;
 import fr.eimonku.wikimedia.WikimediaResources;
 
 public class AnkiApplication {
+	private static final Logger logger = getLogger();
+	private static final Duration MEDIA_MAX_AGE = Duration.ofDays(30);
+	// cached pages older than the ISO-8601 duration of this property (-Dwikimedia.cacheTtl=P7D for instance) are
+	// revalidated, they never are if it is not set
+	private static final String CACHE_TTL_PROPERTY = "wikimedia.cacheTtl";
+
 	public static void ankiApplication(String[] args, ApplicationAction action) {
 		final Path resultFile = Paths.get(args[0]), mediaDir = Paths.get(args[1]), cacheDir = Paths.get(args[2]);
 		Stream.of(resultFile.toAbsolutePath().getParent(), mediaDir, cacheDir).forEach(dir -> {
@@ -24,10 +40,33 @@ public class AnkiApplication {
 			}
 		});
 
-		try (final Writer w = newBufferedWriter(resultFile)) {
-			action.accept(w, new WikimediaCache(cacheDir), new WikimediaResources(mediaDir));
+		final Duration cacheTtl = cacheTtl();
+		final WikimediaMetrics metrics = new WikimediaMetrics();
+		metrics.register();
+		// most pages are French articles, media files are downloaded from upload.wikimedia.org
+		final FetchScheduler scheduler = new FetchScheduler().hostLimits("fr.wikipedia.org", 8, 20)
+		    .hostLimits("en.wikipedia.org", 4, 10).hostLimits("commons.wikimedia.org", 4, 10)
+		    .hostLimits("upload.wikimedia.org", 6, 15);
+		try (final HttpEngine engine = new HttpClientEngine(scheduler, metrics);
+		    final WikimediaCache cache = new WikimediaCache(cacheDir, scheduler, engine, cacheTtl, metrics);
+		    final WikimediaResources resources = new WikimediaResources(mediaDir, cacheDir.resolve("media"), engine,
+		        metrics).svgOptimizer(new SvgOptimizer()).maxAge(MEDIA_MAX_AGE);
+		    final Writer w = newBufferedWriter(resultFile)) {
+			action.accept(w, cache, resources);
 		} catch (IOException e) {
 			throw new RuntimeException(format("unable to write to '%s'", resultFile), e);
+		} finally {
+			metrics.unregister();
+			logger.info("Wikimedia: {}", metrics.summary());
+		}
+	}
+
+	private static Duration cacheTtl() {
+		final String cacheTtl = System.getProperty(CACHE_TTL_PROPERTY);
+		try {
+			return (cacheTtl != null) ? Duration.parse(cacheTtl) : null;
+		} catch (DateTimeParseException e) {
+			throw new RuntimeException(format("invalid %s '%s'", CACHE_TTL_PROPERTY, cacheTtl), e);
 		}
 	}
 
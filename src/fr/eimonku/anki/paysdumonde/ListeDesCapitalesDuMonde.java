@@ -1,17 +1,22 @@
 package fr.eimonku.anki.paysdumonde;
 
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
 import static java.util.Locale.FRENCH;
 import static java.util.regex.Pattern.compile;
+import static java.util.stream.Collectors.toList;
 
 import java.text.Collator;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
@@ -19,20 +24,19 @@ import org.jsoup.nodes.TextNode;
 import fr.eimonku.wikimedia.WikimediaCache;
 
 public class ListeDesCapitalesDuMonde {
-	private final WikimediaCache cache;
 	private final Map<String, SortedSet<String>> capitalNamesByWikipediaCanonicalUrls = new HashMap<>();
 
-	public ListeDesCapitalesDuMonde(WikimediaCache cache) {
-		this.cache = cache;
+	static final String URL = "https://fr.wikipedia.org/wiki/Liste_des_capitales_du_monde";
+	private static final int EXTRACTOR_VERSION = 1;
 
-		final Element table = cache.get("https://fr.wikipedia.org/wiki/Liste_des_capitales_du_monde")
-		    .select("h2:has(#Liste_principale)~table").first();
+	public ListeDesCapitalesDuMonde(WikimediaCache cache) {
+		final List<List<String>> rows = cache.extract(URL, "capitalesdumonde.liste", EXTRACTOR_VERSION,
+		    ListeDesCapitalesDuMonde::rows);
+		cache.prefetch(rows.stream().map(row -> row.get(0)).collect(toList()));
 
-		if (table != null) {
-			processTable(table);
-		} else {
-			throw new RuntimeException("unable to find #Liste_principale");
-		}
+		rows.forEach(row -> capitalNamesByWikipediaCanonicalUrls
+		    .computeIfAbsent(cache.canonicalUrl(row.get(0)), k -> new TreeSet<>(Collator.getInstance(FRENCH)))
+		    .add(row.get(1)));
 	}
 
 	public Stream<String> capitalNamesForWikipediaCanonicalUrl(String wikipediaCanonicalUrl) {
@@ -44,15 +48,21 @@ public class ListeDesCapitalesDuMonde {
 		throw new RuntimeException(format("no capital name for '%s'", wikipediaCanonicalUrl));
 	}
 
-	private void processTable(Element table) {
+	// [state url, capital name] for each row of the table
+	private static List<List<String>> rows(Document document) {
+		final Element table = document.select("h2:has(#Liste_principale)~table").first();
+		if (table == null) {
+			throw new RuntimeException("unable to find #Liste_principale");
+		}
+
+		final List<List<String>> rows = new ArrayList<>();
 		table.children().select("tbody").forEach(tbody -> tbody.children().select("tr").forEach(tr -> {
 			final Element td0 = tr.child(0), td1 = tr.child(1);
 			if ("td".equals(td0.tagName()) && "td".equals(td1.tagName())) {
-				final String url = cache.get(td1.children().select("a").get(1).absUrl("href")).baseUri();
-				capitalNamesByWikipediaCanonicalUrls.computeIfAbsent(url, k -> new TreeSet<>(Collator.getInstance(FRENCH)))
-		        .add(fullName(td0));
+				rows.add(asList(td1.children().select("a").get(1).absUrl("href"), fullName(td0)));
 			}
 		}));
+		return rows;
 	}
 
 	private static final Pattern NAME_PATTERN = compile("\\(capitale ([^)]+)\\)"), TEXT_REPLACE_PATTERN = compile("\\s+");
@@ -4,11 +4,17 @@ import static java.lang.Integer.parseInt;
 import static java.lang.String.format;
 import static java.text.Normalizer.normalize;
 import static java.text.Normalizer.Form.NFD;
+import static java.util.Arrays.asList;
 import static java.util.Locale.FRENCH;
 import static java.util.regex.Pattern.compile;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -31,70 +37,119 @@ public class ListeDesPaysDuMonde {
 	private final ListeDesCapitalesDuMonde listeDesCapitalesDuMonde;
 	private final OrthographicProjectionsMaps orthographicProjectionsMaps;
 
+	static final String URL = "https://fr.wikipedia.org/wiki/Liste_des_pays_du_monde";
+	private static final int EXTRACTOR_VERSION = 1;
+
 	public ListeDesPaysDuMonde(WikimediaCache cache, WikimediaResources resources) {
 		this.cache = cache;
 		this.resources = resources;
+		cache.prefetch(asList(URL, ListeDesCapitalesDuMonde.URL, OrthographicProjectionsMaps.URL));
 		listeDesCapitalesDuMonde = new ListeDesCapitalesDuMonde(cache);
 		orthographicProjectionsMaps = new OrthographicProjectionsMaps(cache);
 	}
 
 	public void forEach(Consumer<State> action) {
-		final Element firstSibling = cache.get("https://fr.wikipedia.org/wiki/Liste_des_pays_du_monde")
-		    .select("h3:has(#Liste_principale)+*").first();
-		if (firstSibling != null) {
-			processFirstSibling(firstSibling, action);
-		} else {
-			throw new RuntimeException("unable to find #Liste_principale");
-		}
-	}
+		final List<String> stateUrls = cache.extract(URL, "paysdumonde.liste", EXTRACTOR_VERSION,
+		    ListeDesPaysDuMonde::stateUrls);
+		prefetch(stateUrls);
 
-	private void processFirstSibling(Element firstSibling, Consumer<State> action) {
 		final SortedMap<String, State> states = new TreeMap<>(Collator.getInstance(FRENCH));
+		stateUrls.forEach(url -> {
+			final State state = state(url);
+			states.put(state.name, state);
+		});
+
+		states.values().forEach(action);
+	}
+
+	// loads (and extracts) concurrently, level by level, every document state() needs
+	private void prefetch(List<String> stateUrls) {
+		final Map<String, Map<String, String>> valuesByUrls = cache.extractAll(stateUrls, "paysdumonde.pays",
+		    EXTRACTOR_VERSION, ListeDesPaysDuMonde::stateValues);
+		final Map<String, Map<String, String>> enValuesByUrls = cache.extractAll(
+		    valuesByUrls.values().stream().map(values -> values.get("enUrl")).collect(toList()), "paysdumonde.enPays",
+		    EXTRACTOR_VERSION, ListeDesPaysDuMonde::enStateValues);
+
+		final List<String> wikimediaUrls = new ArrayList<>();
+		valuesByUrls.values().forEach(values -> {
+			final Map<String, String> enValues = enValuesByUrls.get(values.get("enUrl"));
+			wikimediaUrls.add(mapUrl(enValues.get("name"), values, enValues));
+			wikimediaUrls.add(values.get("flagUrl"));
+		});
+		cache.fullMediaUrls(wikimediaUrls);
+	}
 
+	private static List<String> stateUrls(Document document) {
+		final Element firstSibling = document.select("h3:has(#Liste_principale)+*").first();
+		if (firstSibling == null) {
+			throw new RuntimeException("unable to find #Liste_principale");
+		}
+
+		final List<String> urls = new ArrayList<>();
 		for (Element el = firstSibling; el != null
 		    && titleLevel(el).map(level -> (level > 3)).orElse(true); el = el.nextElementSibling()) {
 			if ("table".equals(el.tagName())) {
-				processTable(el, state -> states.put(state.name, state));
+				el.children().select("tbody").forEach(tbody -> tbody.children().select("tr").forEach(tr -> {
+					final Element td = tr.child(1);
+					if ("td".equals(td.tagName())) {
+						urls.add(td.children().select("a").first().absUrl("href"));
+					}
+				}));
 			}
 		}
+		return urls;
+	}
 
-		states.values().forEach(action);
+	private State state(String url) {
+		final Map<String, String> values = cache.extract(url, "paysdumonde.pays", EXTRACTOR_VERSION,
+		    ListeDesPaysDuMonde::stateValues);
+		final String name = values.get("name");
+		final String fileName = fileName(name);
+
+		final Map<String, String> enValues = cache.extract(values.get("enUrl"), "paysdumonde.enPays", EXTRACTOR_VERSION,
+		    ListeDesPaysDuMonde::enStateValues);
+		final String enName = enValues.get("name");
+
+		return new State(name,
+		    listeDesCapitalesDuMonde.capitalNamesForWikipediaCanonicalUrl(cache.canonicalUrl(url)).collect(joining(", ")),
+		    map(enName, values, enValues, fileName), flag(values, fileName), values.get("gentile"),
+		    values.get("internetDomain"), enName);
 	}
 
-	private void processTable(Element table, Consumer<State> action) {
-		table.children().select("tbody").forEach(tbody -> tbody.children().select("tr").forEach(tr -> {
-			final Element td = tr.child(1);
-			if ("td".equals(td.tagName())) {
-				final Document document = cache.get(td.children().select("a").first().absUrl("href"));
-				final String name = name(document);
-				final String fileName = fileName(name);
+	private static Map<String, String> stateValues(Document document) {
+		final Map<String, String> values = new HashMap<>();
+		values.put("name", name(document));
+		values.put("enUrl", document.select("li.interwiki-en a").first().absUrl("href"));
+		values.put("flagUrl", document.select("a[title=Drapeau]").first().absUrl("href"));
+		values.put("gentile", gentile(document));
+		values.put("internetDomain", internetDomain(document));
+		values.put("orthographicMapUrl", OrthographicProjectionsMaps.orthographicMapUrl(document));
+		values.put("mapUrl", OrthographicProjectionsMaps.mapUrl(document));
+		return values;
+	}
 
-				final Document enDocument = cache.get(document.select("li.interwiki-en a").first().absUrl("href"));
-				final String enName = name(enDocument);
+	private static Map<String, String> enStateValues(Document document) {
+		final Map<String, String> values = new HashMap<>();
+		values.put("name", name(document));
+		values.put("orthographicMapUrl", OrthographicProjectionsMaps.orthographicMapUrl(document));
+		return values;
+	}
 
-				action
-		        .accept(new State(name,
-		            listeDesCapitalesDuMonde.capitalNamesForWikipediaCanonicalUrl(document.baseUri())
-		                .collect(joining(", ")),
-		            map(enName, document, enDocument, fileName), flag(document, fileName), gentile(document),
-		            internetDomain(document), enName));
-			}
-		}));
+	private String map(String enName, Map<String, String> values, Map<String, String> enValues, String fileName) {
+		return svgFile(mapUrl(enName, values, enValues), format("Carte-pays_%s.svg", fileName));
 	}
 
-	private String map(String enName, Document frDocument, Document enDocument, String fileName) {
-		return svgFile(cache.get(orthographicProjectionsMaps.mapForDocumentAndEnName(enName, frDocument, enDocument)),
-		    format("Carte-pays_%s.svg", fileName));
+	private String mapUrl(String enName, Map<String, String> values, Map<String, String> enValues) {
+		return orthographicProjectionsMaps.mapUrl(enName, values.get("orthographicMapUrl"),
+		    enValues.get("orthographicMapUrl"), values.get("mapUrl"));
 	}
 
-	private String flag(Document document, String fileName) {
-		return svgFile(cache.get(document.select("a[title=Drapeau]").first().absUrl("href")),
-		    format("Drapeau-pays_%s.svg", fileName));
+	private String flag(Map<String, String> values, String fileName) {
+		return svgFile(values.get("flagUrl"), format("Drapeau-pays_%s.svg", fileName));
 	}
 
-	private String svgFile(Document wikimediaDocument, String fileName) {
-		resources.createSvgFile(wikimediaDocument, fileName);
-		return format("<img src=\"%s\" />", fileName);
+	private String svgFile(String wikimediaUrl, String fileName) {
+		return format("<img src=\"%s\" />", resources.createSvgFile(cache.fullMediaUrl(wikimediaUrl), fileName));
 	}
 
 	private static String gentile(Document document) {
@@ -2,40 +2,52 @@ package fr.eimonku.anki.paysdumonde;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.regex.Pattern;
 
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 import fr.eimonku.wikimedia.WikimediaCache;
 
 public class OrthographicProjectionsMaps {
-	final Document document;
+	static final String URL = "https://commons.wikimedia.org/wiki/Grey-green_orthographic_projections_maps";
+	private static final int EXTRACTOR_VERSION = 1;
+
+	// [text, paragraphs text, map url] for each gallery item
+	final List<List<String>> galleryItems;
 
 	public OrthographicProjectionsMaps(WikimediaCache cache) {
-		document = cache.get("https://commons.wikimedia.org/wiki/Grey-green_orthographic_projections_maps");
+		galleryItems = cache.extract(URL, "orthographicprojectionsmaps.galerie", EXTRACTOR_VERSION,
+		    OrthographicProjectionsMaps::galleryItems);
 	}
 
 	private static final Pattern NAME_PATTERN = Pattern.compile("The ");
 
-	public String mapForDocumentAndEnName(String enName, Document frDocument, Document enDocument) {
+	// orthographicMapUrl and mapUrl are extracted from the French state document, enOrthographicMapUrl from the English
+	// one, they may be empty
+	public String mapUrl(String enName, String orthographicMapUrl, String enOrthographicMapUrl, String mapUrl) {
 		if ("Australia".equals(enName)) {
 			return "https://commons.wikimedia.org/wiki/File:Australia_(orthographic_projection).svg";
 		}
 
 		{
-			final String cleanName = NAME_PATTERN.matcher(enName).replaceAll("");
-			final Elements els = this.document.select(format("div.gallerytext:has(p:contains(%s))", cleanName));
-			if (!els.isEmpty() && !"Austro-Hungary".equals(els.first().text())) {
-				return els.first().previousElementSibling().select("a").first().absUrl("href");
+			final String cleanName = NAME_PATTERN.matcher(enName).replaceAll("").toLowerCase();
+			final Optional<List<String>> item = galleryItems.stream()
+			    .filter(galleryItem -> galleryItem.get(1).toLowerCase().contains(cleanName)).findFirst();
+			if (item.isPresent() && !"Austro-Hungary".equals(item.get().get(0))) {
+				return item.get().get(2);
 			}
 		}
 
-		for (final Document document : asList(frDocument, enDocument)) {
-			final Elements els = document.select("div.images a[href*=orthographic]");
-			if (!els.isEmpty()) {
-				return els.first().absUrl("href");
+		for (final String url : asList(orthographicMapUrl, enOrthographicMapUrl)) {
+			if (!url.isEmpty()) {
+				return url;
 			}
 		}
 
@@ -68,11 +80,33 @@ public class OrthographicProjectionsMaps {
 			return "https://commons.wikimedia.org/wiki/File:Locator_map_of_Vatican_City.svg";
 		}
 
-		final Elements els = frDocument.select("div.images a[href*=Fichier]");
-		if (!els.isEmpty()) {
-			return els.first().absUrl("href");
+		if (!mapUrl.isEmpty()) {
+			return mapUrl;
 		}
 
 		throw new RuntimeException(format("no map for '%s'", enName));
 	}
+
+	static String orthographicMapUrl(Document document) {
+		return firstUrl(document.select("div.images a[href*=orthographic]"));
+	}
+
+	static String mapUrl(Document document) {
+		return firstUrl(document.select("div.images a[href*=Fichier]"));
+	}
+
+	private static String firstUrl(Elements els) {
+		return !els.isEmpty() ? els.first().absUrl("href") : "";
+	}
+
+	private static List<List<String>> galleryItems(Document document) {
+		final List<List<String>> items = new ArrayList<>();
+		document.select("div.gallerytext").forEach(el -> {
+			final Element previous = el.previousElementSibling();
+			final Element a = (previous != null) ? previous.select("a").first() : null;
+			items.add(asList(el.text(), el.select("p").stream().map(Element::text).collect(joining("\n")),
+			    (a != null) ? a.absUrl("href") : ""));
+		});
+		return items;
+	}
 }
@@ -0,0 +1,200 @@
+package fr.eimonku.json;
+
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonReader.JsonListListener;
+
+// reads a JSON Lines file (one value per line, in UTF-8): the file is memory-mapped in chunks of whole lines, which are
+// decoded and parsed on a fork-join pool (a few chunks ahead of the one being consumed), values are passed in the order
+// of their lines
+public class JsonLinesReader {
+	private static final int DEFAULT_CHUNK_SIZE = 1 << 20, SCAN_WINDOW_SIZE = 1 << 16;
+
+	private final Path path;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private SymbolTable symbols;
+
+	public JsonLinesReader(Path path) {
+		this.path = requireNonNull(path, "path");
+	}
+
+	public JsonLinesReader pool(ForkJoinPool pool) {
+		this.pool = requireNonNull(pool, "pool");
+		return this;
+	}
+
+	// chunks end at the first line feed after chunkSize bytes
+	public JsonLinesReader chunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(format("invalid chunk size %s", chunkSize));
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	// shared by the readers of every line
+	public JsonLinesReader symbols(SymbolTable symbols) {
+		this.symbols = symbols;
+		return this;
+	}
+
+	public List<Object> readList() throws IOException, InvalidJsonException {
+		final List<Object> list = new ArrayList<>();
+		read(list::add);
+		return list;
+	}
+
+	// values are passed (to newElement) on the calling thread, empty lines are skipped; if a line is invalid (including
+	// if it is not valid UTF-8, or if anything but whitespace follows its value), the values of the previous lines are
+	// passed before InvalidJsonException is thrown
+	public void read(JsonListListener listener) throws IOException, InvalidJsonException {
+		read(listener, false);
+	}
+
+	// as read(), every line must be a map
+	@SuppressWarnings("unchecked")
+	public void readMaps(Consumer<Map<String, Object>> consumer) throws IOException, InvalidJsonException {
+		read(element -> consumer.accept((Map<String, Object>) element), true);
+	}
+
+	private void read(JsonListListener listener, boolean maps) throws IOException, InvalidJsonException {
+		try (final FileChannel channel = FileChannel.open(path, READ)) {
+			final long size = channel.size();
+			final Deque<CompletableFuture<Chunk>> chunks = new ArrayDeque<>();
+			long offset = 0, line = 1;
+			while (offset < size || !chunks.isEmpty()) {
+				while (offset < size && chunks.size() < 2 * pool.getParallelism()) {
+					final long end = (size - offset <= chunkSize) ? size : lineEnd(channel, offset + chunkSize - 1, size);
+					final MappedByteBuffer bytes = channel.map(READ_ONLY, offset, end - offset);
+					chunks.add(supplyAsync(() -> parse(bytes, maps), pool));
+					offset = end;
+				}
+
+				final Chunk chunk = join(chunks.remove());
+				for (final Object value : chunk.values) {
+					listener.newElement(value);
+				}
+				if (chunk.exception != null) {
+					throw new InvalidJsonException(format("line %s of '%s': %s", line + chunk.lines, path,
+					    chunk.exception.getMessage()), chunk.exception);
+				}
+				line += chunk.lines;
+			}
+		}
+	}
+
+	// the offset following the first line feed at or after offset (or size if there is none)
+	private static long lineEnd(FileChannel channel, long offset, long size) throws IOException {
+		while (offset < size) {
+			final ByteBuffer window = channel.map(READ_ONLY, offset, Long.min(SCAN_WINDOW_SIZE, size - offset));
+			while (window.hasRemaining()) {
+				if (window.get() == '\n') {
+					return offset + window.position();
+				}
+			}
+			offset += window.capacity();
+		}
+		return size;
+	}
+
+	// the bytes are decoded up to the first invalid UTF-8 sequence (if any), the lines before the one containing it are
+	// parsed, it is then reported as invalid
+	private Chunk parse(ByteBuffer bytes, boolean maps) {
+		final CharsetDecoder decoder = UTF_8.newDecoder();
+		final CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+		CoderResult result = decoder.decode(bytes, chars, true);
+		if (!result.isError()) {
+			result = decoder.flush(chars);
+		}
+		chars.flip();
+
+		final Chunk chunk = new Chunk();
+		final char[] array = chars.array();
+		int end = chars.limit();
+		if (result.isError()) {
+			while (end > 0 && array[end - 1] != '\n') {
+				--end;
+			}
+		}
+		for (int start = 0; start < end; ++chunk.lines) {
+			int lineEnd = start;
+			while (lineEnd < end && array[lineEnd] != '\n') {
+				++lineEnd;
+			}
+			final int nextStart = lineEnd + 1;
+			if (lineEnd > start && array[lineEnd - 1] == '\r') {
+				--lineEnd;
+			}
+
+			if (lineEnd > start) {
+				try {
+					final JsonReader r = new JsonReader(new CharArrayReader(array, start, lineEnd - start)).symbols(symbols);
+					final Object value = maps ? r.readMap() : r.readObject();
+					r.readEnd();
+					chunk.values.add(value);
+				} catch (InvalidJsonException e) {
+					chunk.exception = e;
+					return chunk;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			start = nextStart;
+		}
+
+		if (result.isError()) {
+			chunk.exception = new InvalidJsonException("invalid UTF-8", new MalformedInputException(result.length()));
+		}
+		return chunk;
+	}
+
+	private static Chunk join(CompletableFuture<Chunk> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	// the values of the lines of a chunk, up to the first invalid one (if any, the lines before it are counted)
+	private static class Chunk {
+		final List<Object> values = new ArrayList<>();
+		int lines = 0;
+		InvalidJsonException exception;
+	}
+}
@@ -0,0 +1,33 @@
+package fr.eimonku.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// writes one value per line (JSON Lines) to an output stream, encoded to UTF-8; each line is written to the stream once
+// complete
+public class JsonLinesWriter implements Closeable, Flushable {
+	private final OutputStream os;
+	private final JsonWriter w;
+
+	public JsonLinesWriter(OutputStream os) {
+		this.os = os;
+		w = new JsonWriter(os);
+	}
+
+	public JsonLinesWriter append(Object value) throws IOException {
+		w.appendObject(value).appendLf();
+		return this;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		os.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		os.close();
+	}
+}
@@ -1,8 +1,8 @@
 package fr.eimonku.json;
 
 import static java.lang.Double.parseDouble;
-import static java.lang.Long.parseLong;
 import static java.lang.String.format;
+import static java.util.Arrays.copyOf;
 import static org.apache.logging.log4j.LogManager.getLogger;
 
 import java.io.IOException;
@@ -14,19 +14,52 @@ import java.util.Map;
 
 import org.apache.logging.log4j.Logger;
 
+// characters are read in blocks (the reader may therefore be read beyond the end of the JSON value), the line and column
+// of the current position are only computed when needed, per block; values are either read whole (push API: read*
+// methods, with listeners for maps and lists) or token by token (pull API: nextToken and the current* and get*
+// methods), both APIs must not be mixed within a value
 public class JsonReader {
 	private static final Logger logger = getLogger();
+	private static final int INITIAL_BUFFER_SIZE = 256, MAX_BUFFER_SIZE = 8_192;
+	// powers of ten exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+	    1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
 
 	private final Reader r;
-
-	private int peekedChar = -1;
-	private boolean lastCharCr = false;
-	private int currentLine = 1, currentCol = 0;
+	private SymbolTable symbols;
+	private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+	private int position = 0, limit = 0;
+	private char[] scratch = new char[64];
+	private int scratchLength;
+
+	// position of the start of the buffer
+	private int bufferLine = 1, bufferCol = 0;
+	private boolean bufferLastCharCr = false;
+
+	// pull API state: the enclosing maps and lists (with their names), the current token and its name and value
+	private boolean[] inMaps = new boolean[16];
+	private String[] names = new String[16];
+	private int depth = 0;
+	private boolean started = false, first;
+	private Token token;
+	private String name;
+	private Object value;
+
+	// the last number read, by readNumber (if it returned true) or by scanNumber
+	private boolean integral;
+	private long longValue;
+	private double doubleValue;
 
 	public JsonReader(Reader r) {
 		this.r = r;
 	}
 
+	// strings are read through symbols (if not null), which may be shared by several readers
+	public JsonReader symbols(SymbolTable symbols) {
+		this.symbols = symbols;
+		return this;
+	}
+
 	public Object readObject() throws IOException, InvalidJsonException {
 		final char c = peekFirstTokenChar();
 		switch (c) {
@@ -45,47 +78,66 @@ public class JsonReader {
 			if (isNumberChar(c)) {
 				return readNumber();
 			} else {
-				read();
+				++position;
 				throw new InvalidJsonException(format("unexpected character \\u%04x", (int) c), this);
 			}
 		}
 	}
 
+	// only whitespace may follow the value read (up to the end of input)
+	public void readEnd() throws IOException, InvalidJsonException {
+		skipWhitespaces();
+		if (position < limit) {
+			final char c = buffer[position++];
+			throw new InvalidJsonException(format("unexpected character \\u%04x after the value", (int) c), this);
+		}
+	}
+
 	public String readString() throws IOException, InvalidJsonException {
 		readToken("\"");
 
-		final StringBuilder sb = new StringBuilder();
+		// runs of unescaped characters are copied in bulk, into the scratch buffer only if the string spans several blocks
+		// or contains escape sequences
+		scratchLength = 0;
+		int start = position;
+		while (true) {
+			if (position == limit) {
+				appendToScratch(buffer, start, position - start);
+				if (!fill()) {
+					++position;
+					throw new InvalidJsonException("unexpected end of input", this);
+				}
+				start = position;
+			}
 
-		char c;
-		while ((c = read()) != '"') {
-			sb.append(c != '\\' ? c : readEscapeSequence());
+			final char c = buffer[position];
+			if (c == '"') {
+				final String string;
+				if (scratchLength == 0) {
+					string = string(buffer, start, position - start);
+				} else {
+					appendToScratch(buffer, start, position - start);
+					string = string(scratch, 0, scratchLength);
+				}
+				++position;
+				return string;
+			} else if (c == '\\') {
+				appendToScratch(buffer, start, position - start);
+				++position;
+				appendToScratch(readEscapeSequence());
+				start = position;
+			} else {
+				++position;
+			}
 		}
-
-		return sb.toString();
 	}
 
+	// numbers are integral (long) if their value fits, whatever their notation
 	public Number readNumber() throws IOException, InvalidJsonException {
-		final StringBuilder sb = new StringBuilder();
-		while (isNumberChar(peekNoThrow())) {
-			sb.append(read());
-		}
-
-		final String s = sb.toString();
-		try {
-			return parseLong(s);
-		} catch (NumberFormatException e) {
-		}
-		final double d;
-		try {
-			d = parseDouble(s);
-		} catch (NumberFormatException e) {
-			throw new InvalidJsonException("invalid number", this);
-		}
-
-		if ((d % 1) == 0 && d >= Long.MIN_VALUE && d <= Long.MAX_VALUE) {
-			return (long) d;
+		if (scanNumber()) {
+			return longValue;
 		} else {
-			return d;
+			return doubleValue;
 		}
 	}
 
@@ -110,7 +162,13 @@ public class JsonReader {
 			readToken(separator);
 			final String key = readString();
 			readToken(":");
-			listener.newEntry(key, readObject());
+			if (!isNumberStart(peekFirstTokenChar())) {
+				listener.newEntry(key, readObject());
+			} else if (scanNumber()) {
+				listener.newLongEntry(key, longValue);
+			} else {
+				listener.newDoubleEntry(key, doubleValue);
+			}
 			separator = ",";
 		}
 
@@ -134,7 +192,13 @@ public class JsonReader {
 		String separator = "";
 		while (peekFirstTokenChar() != ']') {
 			readToken(separator);
-			listener.newElement(readObject());
+			if (!isNumberStart(peekFirstTokenChar())) {
+				listener.newElement(readObject());
+			} else if (scanNumber()) {
+				listener.newLongElement(longValue);
+			} else {
+				listener.newDoubleElement(doubleValue);
+			}
 			separator = ",";
 		}
 
@@ -152,6 +216,301 @@ public class JsonReader {
 		return null;
 	}
 
+	// returns the next token, or null once the whole value has been read
+	public Token nextToken() throws IOException, InvalidJsonException {
+		return nextToken(false);
+	}
+
+	public Token currentToken() {
+		return token;
+	}
+
+	// the name of the current value if it is in a map (or of the ended map or list, for END_MAP and END_LIST tokens), null
+	// otherwise
+	public String currentName() {
+		return name;
+	}
+
+	// skips the current value (with everything up to its END_MAP or END_LIST token if it is a map or a list), the strings
+	// it contains are not allocated
+	public void skipValue() throws IOException, InvalidJsonException {
+		if (token == Token.START_MAP || token == Token.START_LIST) {
+			for (final int valueDepth = depth; depth >= valueDepth;) {
+				nextToken(true);
+			}
+		}
+	}
+
+	// reads the current value whole (everything up to its END_MAP or END_LIST token if it is a map or a list)
+	public Object readCurrentValue() throws IOException, InvalidJsonException {
+		if (token == null) {
+			throw new IllegalStateException("no current value");
+		}
+
+		switch (token) {
+		case START_MAP: {
+			final Map<String, Object> map = new LinkedHashMap<>();
+			while (nextToken() != Token.END_MAP) {
+				final String key = name;
+				if (map.put(key, readCurrentValue()) != null) {
+					logger.warn("JSON: overriding value for duplicate key '{}'", key);
+				}
+			}
+			return map;
+		}
+		case START_LIST: {
+			final List<Object> list = new ArrayList<>();
+			while (nextToken() != Token.END_LIST) {
+				list.add(readCurrentValue());
+			}
+			return list;
+		}
+		case END_MAP:
+		case END_LIST:
+			throw new IllegalStateException(format("no current value at %s", token));
+		case NUMBER:
+			return getNumber();
+		default:
+			return value;
+		}
+	}
+
+	public String getString() {
+		checkToken(Token.STRING);
+		return (String) value;
+	}
+
+	public Number getNumber() {
+		checkToken(Token.NUMBER);
+		if (integral) {
+			return longValue;
+		} else {
+			return doubleValue;
+		}
+	}
+
+	// the current number, truncated if it is not integral
+	public long getLong() {
+		checkToken(Token.NUMBER);
+		return integral ? longValue : (long) doubleValue;
+	}
+
+	public double getDouble() {
+		checkToken(Token.NUMBER);
+		return integral ? longValue : doubleValue;
+	}
+
+	public boolean getBoolean() {
+		checkToken(Token.BOOLEAN);
+		return (Boolean) value;
+	}
+
+	private Token nextToken(boolean skipping) throws IOException, InvalidJsonException {
+		value = null;
+		if (depth == 0) {
+			if (started) {
+				return token = null;
+			}
+			started = true;
+		} else {
+			final boolean inMap = inMaps[depth - 1];
+			if (peekFirstTokenChar() == (inMap ? '}' : ']')) {
+				++position;
+				name = names[--depth];
+				names[depth] = null;
+				first = false;
+				return token = inMap ? Token.END_MAP : Token.END_LIST;
+			}
+
+			readToken(first ? "" : ",");
+			first = false;
+			if (inMap) {
+				name = skipping ? skipString() : readString();
+				readToken(":");
+			} else {
+				name = null;
+			}
+		}
+
+		final char c = peekFirstTokenChar();
+		switch (c) {
+		case '{':
+		case '[':
+			++position;
+			if (depth == inMaps.length) {
+				inMaps = copyOf(inMaps, 2 * depth);
+				names = copyOf(names, 2 * depth);
+			}
+			inMaps[depth] = (c == '{');
+			names[depth++] = name;
+			first = true;
+			return token = (c == '{') ? Token.START_MAP : Token.START_LIST;
+		case '"':
+			value = skipping ? skipString() : readString();
+			return token = Token.STRING;
+		case 't':
+		case 'f':
+			value = readBoolean();
+			return token = Token.BOOLEAN;
+		case 'n':
+			readNull();
+			return token = Token.NULL;
+		default:
+			if (isNumberChar(c)) {
+				integral = scanNumber();
+				return token = Token.NUMBER;
+			} else {
+				++position;
+				throw new InvalidJsonException(format("unexpected character \\u%04x", (int) c), this);
+			}
+		}
+	}
+
+	private void checkToken(Token expectedToken) {
+		if (token != expectedToken) {
+			throw new IllegalStateException(format("current token is %s, not %s", token, expectedToken));
+		}
+	}
+
+	// reads a string without allocating it, returns null
+	private String skipString() throws IOException, InvalidJsonException {
+		readToken("\"");
+
+		char c;
+		while ((c = read()) != '"') {
+			if (c == '\\') {
+				readEscapeSequence();
+			}
+		}
+		return null;
+	}
+
+	// reads a number into longValue (returning true) if its value is integral and fits, into doubleValue otherwise;
+	// numbers are converted without exceptions nor allocations unless they have too many digits (or a large exponent),
+	// which are left to Double.parseDouble, only the JSON syntax is accepted (no '+' sign, leading zero, lone '.',
+	// Infinity, NaN or hexadecimal numbers)
+	private boolean scanNumber() throws IOException, InvalidJsonException {
+		scratchLength = 0;
+		while (true) {
+			if (position == limit && !fill()) {
+				break;
+			}
+
+			final int start = position;
+			while (position < limit && isNumberChar(buffer[position])) {
+				++position;
+			}
+			appendToScratch(buffer, start, position - start);
+			if (position < limit) {
+				break;
+			}
+		}
+
+		final char[] chars = scratch;
+		final int length = scratchLength;
+		int i = 0;
+		final boolean negative = (length > 0 && chars[0] == '-');
+		if (negative) {
+			++i;
+		}
+
+		// digits are accumulated negatively (as Long.parseLong does), so that Long.MIN_VALUE fits
+		final long limitValue = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long accumulator = 0;
+		boolean overflow = false, integer = true;
+		int exponent = 0;
+		final int integerStart = i;
+		for (; i < length && isDigit(chars[i]); ++i) {
+			final int digit = chars[i] - '0';
+			if (accumulator < limitValue / 10 || accumulator * 10 < limitValue + digit) {
+				overflow = true;
+			} else {
+				accumulator = accumulator * 10 - digit;
+			}
+		}
+		if (i == integerStart || (chars[integerStart] == '0' && i > integerStart + 1)) {
+			throw new InvalidJsonException("invalid number", this);
+		}
+		if (i < length && chars[i] == '.') {
+			integer = false;
+			final int fractionStart = ++i;
+			for (; i < length && isDigit(chars[i]); ++i) {
+				final int digit = chars[i] - '0';
+				if (accumulator < limitValue / 10 || accumulator * 10 < limitValue + digit) {
+					overflow = true;
+				} else {
+					accumulator = accumulator * 10 - digit;
+					--exponent;
+				}
+			}
+			if (i == fractionStart) {
+				throw new InvalidJsonException("invalid number", this);
+			}
+		}
+		if (i < length && (chars[i] == 'e' || chars[i] == 'E')) {
+			integer = false;
+			++i;
+			final boolean negativeExponent = (i < length && chars[i] == '-');
+			if (i < length && (chars[i] == '-' || chars[i] == '+')) {
+				++i;
+			}
+			final int exponentStart = i;
+			int exponentValue = 0;
+			for (; i < length && isDigit(chars[i]); ++i) {
+				exponentValue = Integer.min(10 * exponentValue + chars[i] - '0', 100_000);
+			}
+			if (i == exponentStart) {
+				throw new InvalidJsonException("invalid number", this);
+			}
+			exponent += negativeExponent ? -exponentValue : exponentValue;
+		}
+		if (i < length) {
+			throw new InvalidJsonException("invalid number", this);
+		}
+
+		if (integer && !overflow) {
+			longValue = negative ? accumulator : -accumulator;
+			return true;
+		}
+
+		final double d;
+		if (!overflow && accumulator >= -(1L << 53) && exponent >= -22 && exponent <= 22) {
+			// both the digits and the power of ten are exact doubles, so one operation rounds correctly
+			final double magnitude = (exponent < 0) ? -accumulator / POWERS_OF_TEN[-exponent]
+			    : -accumulator * POWERS_OF_TEN[exponent];
+			d = negative ? -magnitude : magnitude;
+		} else {
+			d = parseDouble(new String(chars, 0, length));
+		}
+
+		// an integer which does not fit is not rounded to a long (its double may be Long.MIN_VALUE)
+		if (integer) {
+			doubleValue = d;
+			return false;
+		}
+		return integralIfPossible(d);
+	}
+
+	// 0x1p63 is Long.MAX_VALUE + 1, which (long) would saturate
+	private boolean integralIfPossible(double d) {
+		if ((d % 1) == 0 && d >= Long.MIN_VALUE && d < 0x1p63) {
+			longValue = (long) d;
+			return true;
+		} else {
+			doubleValue = d;
+			return false;
+		}
+	}
+
+	// whether readObject would read a number from c
+	private static boolean isNumberStart(char c) {
+		return isNumberChar(c) && c != 't' && c != 'f' && c != 'n';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
 	private static boolean isNumberChar(int c) {
 		return c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
 		    || (c >= 'A' && c <= 'Z');
@@ -220,8 +579,13 @@ public class JsonReader {
 	}
 
 	private void skipWhitespaces() throws IOException, InvalidJsonException {
-		while (isWhitespace(peek())) {
-			read();
+		while (true) {
+			while (position < limit && isWhitespace(buffer[position])) {
+				++position;
+			}
+			if (position < limit || !fill()) {
+				return;
+			}
 		}
 	}
 
@@ -230,65 +594,134 @@ public class JsonReader {
 	}
 
 	private char read() throws IOException, InvalidJsonException {
-		final char c;
-		if (peekedChar >= 0) {
-			c = (char) peekedChar;
-			peekedChar = -1;
-		} else {
-			c = forceRead();
-		}
-
-		final boolean cr = (c == '\r');
-		if (cr || c == '\n') {
-			if (cr || !lastCharCr) {
-				++currentLine;
-				currentCol = 0;
-			}
-			lastCharCr = cr;
-		} else {
-			++currentCol;
-		}
-
+		final char c = peek();
+		++position;
 		return c;
 	}
 
 	private char peek() throws IOException, InvalidJsonException {
-		if (peekedChar < 0) {
-			peekedChar = forceRead();
+		if (position == limit && !fill()) {
+			++position;
+			throw new InvalidJsonException("unexpected end of input", this);
 		}
 
-		return (char) peekedChar;
+		return buffer[position];
 	}
 
-	private int peekNoThrow() throws IOException {
-		if (peekedChar < 0) {
-			peekedChar = r.read();
+	// reads the next block once the current one has been consumed, returns false at the end of input; the buffer grows
+	// while blocks fill it, so that small documents (such as JSON lines) do not allocate a large one
+	private boolean fill() throws IOException {
+		updateBufferPosition(limit);
+		if (limit == buffer.length && buffer.length < MAX_BUFFER_SIZE) {
+			buffer = new char[Integer.min(2 * buffer.length, MAX_BUFFER_SIZE)];
 		}
+		position = 0;
+		do {
+			limit = r.read(buffer, 0, buffer.length);
+		} while (limit == 0);
+
+		if (limit < 0) {
+			limit = 0;
+			return false;
+		}
+		return true;
+	}
 
-		return peekedChar;
+	// moves the position of the start of the buffer to its character at end
+	private void updateBufferPosition(int end) {
+		for (int i = 0; i < end; ++i) {
+			final char c = buffer[i];
+			final boolean cr = (c == '\r');
+			if (cr || c == '\n') {
+				if (cr || !bufferLastCharCr) {
+					++bufferLine;
+					bufferCol = 0;
+				}
+				bufferLastCharCr = cr;
+			} else {
+				++bufferCol;
+			}
+		}
 	}
 
-	private char forceRead() throws IOException, InvalidJsonException {
-		final int c = r.read();
-		if (c < 0) {
-			++currentCol;
-			throw new InvalidJsonException("unexpected end of input", this);
+	private String string(char[] chars, int offset, int length) {
+		return (symbols != null) ? symbols.symbol(chars, offset, length) : new String(chars, offset, length);
+	}
+
+	private void appendToScratch(char[] chars, int offset, int length) {
+		if (scratchLength + length > scratch.length) {
+			scratch = copyOf(scratch, Integer.max(2 * scratch.length, scratchLength + length));
+		}
+		System.arraycopy(chars, offset, scratch, scratchLength, length);
+		scratchLength += length;
+	}
+
+	private void appendToScratch(char c) {
+		if (scratchLength == scratch.length) {
+			scratch = copyOf(scratch, 2 * scratch.length);
 		}
-		return (char) c;
+		scratch[scratchLength++] = c;
 	}
 
 	@SuppressWarnings("serial")
 	public static class InvalidJsonException extends Exception {
 		private InvalidJsonException(String message, JsonReader r) {
-			super(format("%s at line %s, col %s", message, r.currentLine, r.currentCol));
+			super(format("%s at line %s, col %s", message, r.line(), r.col()));
+		}
+
+		InvalidJsonException(String message, Exception cause) {
+			super(message, cause);
 		}
 	}
 
+	// line and column of the last consumed character (one past the end of input if it has been reached)
+	private int line() {
+		return lineAndCol()[0];
+	}
+
+	private int col() {
+		return lineAndCol()[1];
+	}
+
+	private int[] lineAndCol() {
+		final int line = bufferLine, col = bufferCol;
+		final boolean lastCharCr = bufferLastCharCr;
+		final int end = Integer.min(position, limit);
+		updateBufferPosition(end);
+		final int[] lineAndCol = { bufferLine, bufferCol + (position - end) };
+
+		bufferLine = line;
+		bufferCol = col;
+		bufferLastCharCr = lastCharCr;
+		return lineAndCol;
+	}
+
+	public static enum Token {
+		START_MAP, END_MAP, START_LIST, END_LIST, STRING, NUMBER, BOOLEAN, NULL
+	}
+
+	// the primitive variants are called for numbers (integral ones, if they fit, with a long), they box them by default
 	public static interface JsonMapListener {
 		void newEntry(String key, Object value);
+
+		default void newLongEntry(String key, long value) {
+			newEntry(key, value);
+		}
+
+		default void newDoubleEntry(String key, double value) {
+			newEntry(key, value);
+		}
 	}
 
 	public static interface JsonListListener {
 		void newElement(Object element);
+
+		default void newLongElement(long element) {
+			newElement(element);
+		}
+
+		default void newDoubleElement(double element) {
+			newElement(element);
+		}
 	}
 }
@@ -1,27 +1,101 @@
 package fr.eimonku.json;
 
+import static java.lang.Character.isHighSurrogate;
 import static java.lang.Character.isISOControl;
+import static java.lang.Character.isLowSurrogate;
+import static java.lang.Character.isSurrogate;
+import static java.lang.Character.toCodePoint;
 import static java.lang.Integer.toHexString;
+import static java.lang.String.format;
 import static java.util.Arrays.asList;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.AbstractList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
+// values are written to a Writer, or encoded to UTF-8 into a ByteBuffer (replaced by a larger one when full) or to an
+// OutputStream (through a buffer, emptied when full and once each top-level value is complete), both backed by arrays;
+// they are indented (starting at indentLevel) if indentLevel >= 0
 public class JsonWriter {
+	private static final int DEFAULT_BUFFER_SIZE = 8_192;
+	private static final String INDENT = "  ";
+	private static final int PRECOMPUTED_INDENT_LEVELS = 32;
+	// a line feed followed by PRECOMPUTED_INDENT_LEVELS indents
+	private static final String LF_AND_INDENTS;
+	// escape sequences of the characters (below 0xa0) which must be escaped, null for the other ones
+	private static final String[] ESCAPE_SEQUENCES = new String[0xa0];
+
+	static {
+		final StringBuilder sb = new StringBuilder("\n");
+		for (int i = 0; i < PRECOMPUTED_INDENT_LEVELS; ++i) {
+			sb.append(INDENT);
+		}
+		LF_AND_INDENTS = sb.toString();
+
+		for (char c = 0; c < ESCAPE_SEQUENCES.length; ++c) {
+			if (isISOControl(c)) {
+				ESCAPE_SEQUENCES[c] = "\\u" + toHexString(c | 0x10000).substring(1);
+			}
+		}
+		ESCAPE_SEQUENCES['"'] = "\\\"";
+		ESCAPE_SEQUENCES['\\'] = "\\\\";
+		ESCAPE_SEQUENCES['\n'] = "\\n";
+		ESCAPE_SEQUENCES['\r'] = "\\r";
+		ESCAPE_SEQUENCES['\t'] = "\\t";
+		ESCAPE_SEQUENCES['\b'] = "\\b";
+		ESCAPE_SEQUENCES['\f'] = "\\f";
+	}
+
 	private final Writer w;
+	private final OutputStream os;
+	private ByteBuffer bytes;
 	private final int indentLevel;
+	private int depth = 0;
 
 	public JsonWriter(Writer w) {
 		this(w, -1);
 	}
 
 	public JsonWriter(Writer w, int indentLevel) {
+		this(w, null, null, indentLevel);
+	}
+
+	public JsonWriter(ByteBuffer buffer) {
+		this(buffer, -1);
+	}
+
+	// bytes are written from the position of buffer, see buffer()
+	public JsonWriter(ByteBuffer buffer, int indentLevel) {
+		this(null, null, checkHasArray(buffer), indentLevel);
+	}
+
+	public JsonWriter(OutputStream os) {
+		this(os, -1);
+	}
+
+	public JsonWriter(OutputStream os, int indentLevel) {
+		this(os, ByteBuffer.allocate(DEFAULT_BUFFER_SIZE), indentLevel);
+	}
+
+	// buffer (cleared first) may be reused by successive writers, os is not flushed
+	public JsonWriter(OutputStream os, ByteBuffer buffer, int indentLevel) {
+		this(null, os, checkHasArray(buffer).clear(), indentLevel);
+
+		if (buffer.capacity() < 4) {
+			throw new IllegalArgumentException(format("buffer capacity %s is too small", buffer.capacity()));
+		}
+	}
+
+	private JsonWriter(Writer w, OutputStream os, ByteBuffer bytes, int indentLevel) {
 		this.w = w;
+		this.os = os;
+		this.bytes = bytes;
 		this.indentLevel = indentLevel;
 	}
 
@@ -60,46 +134,28 @@ public class JsonWriter {
 	public JsonWriter appendString(String string) throws IOException {
 		append('"');
 
+		int start = 0;
 		for (int i = 0; i < string.length(); ++i) {
 			final char c = string.charAt(i);
-			switch (c) {
-			case '"':
-			case '\\':
-				append('\\').append(c);
-				break;
-			case '\n':
-				append("\\n");
-				break;
-			case '\r':
-				append("\\r");
-				break;
-			case '\t':
-				append("\\t");
-				break;
-			case '\b':
-				append("\\b");
-				break;
-			case '\f':
-				append("\\f");
-				break;
-			default:
-				if (isISOControl(c)) {
-					append("\\u").append(toHexString(c | 0x10000), 1, 5);
-				} else {
-					append(c);
-				}
+			if (c < ESCAPE_SEQUENCES.length && ESCAPE_SEQUENCES[c] != null) {
+				append(string, start, i).append(ESCAPE_SEQUENCES[c]);
+				start = i + 1;
 			}
 		}
 
-		return append('"');
+		return append(string, start, string.length()).append('"').completed();
 	}
 
+	// integral numbers which fit are written as longs (0x1p63 is Long.MAX_VALUE + 1), NaN and infinities are not JSON
+	// numbers
 	public JsonWriter appendNumber(Number n) throws IOException {
 		final double d = n.doubleValue();
-		if ((d % 1) == 0 && d >= Long.MIN_VALUE && d <= Long.MAX_VALUE) {
-			return append(Long.toString(n.longValue()));
+		if ((n instanceof Double || n instanceof Float) && (Double.isNaN(d) || Double.isInfinite(d))) {
+			throw new IllegalArgumentException(format("invalid number %s", n));
+		} else if ((d % 1) == 0 && d >= Long.MIN_VALUE && d < 0x1p63) {
+			return append(Long.toString(n.longValue())).completed();
 		} else {
-			return append(n.toString());
+			return append(n.toString()).completed();
 		}
 	}
 
@@ -109,21 +165,22 @@ public class JsonWriter {
 
 	public JsonWriter appendMap(Iterator<? extends Entry<?, ?>> iterator) throws IOException {
 		if (!iterator.hasNext()) {
-			return append("{}");
+			return append("{}").completed();
 		}
 
-		final JsonWriter indentedWriter = indentedWriter();
+		++depth;
 		char separator = '{';
 		while (iterator.hasNext()) {
 			final Entry<?, ?> entry = iterator.next();
-			indentedWriter.append(separator).appendLfAndIndent().appendString(entry.getKey().toString()).append(':');
+			append(separator).appendLfAndIndent().appendString(entry.getKey().toString()).append(':');
 			if (indentLevel >= 0) {
 				append(' ');
 			}
-			indentedWriter.appendObject(entry.getValue());
+			appendObject(entry.getValue());
 			separator = ',';
 		}
-		return appendLfAndIndent().append('}');
+		--depth;
+		return appendLfAndIndent().append('}').completed();
 	}
 
 	public JsonWriter appendList(Iterable<?> iterable) throws IOException {
@@ -132,38 +189,43 @@ public class JsonWriter {
 
 	public JsonWriter appendList(Iterator<?> iterator) throws IOException {
 		if (!iterator.hasNext()) {
-			return append("[]");
+			return append("[]").completed();
 		}
 
-		final JsonWriter indentedWriter = indentedWriter();
+		++depth;
 		char separator = '[';
 		while (iterator.hasNext()) {
 			final Object element = iterator.next();
-			indentedWriter.append(separator).appendLfAndIndent().appendObject(element);
+			append(separator).appendLfAndIndent().appendObject(element);
 			separator = ',';
 		}
-		return appendLfAndIndent().append(']');
+		--depth;
+		return appendLfAndIndent().append(']').completed();
 	}
 
 	public JsonWriter appendBoolean(boolean bool) throws IOException {
-		return append(bool ? "true" : "false");
+		return append(bool ? "true" : "false").completed();
 	}
 
 	public JsonWriter appendNull() throws IOException {
-		return append("null");
+		return append("null").completed();
 	}
 
-	private JsonWriter indentedWriter() {
-		return indentLevel >= 0 ? new JsonWriter(w, indentLevel + 1) : this;
+	// separates top-level values (JSON Lines)
+	public JsonWriter appendLf() throws IOException {
+		return append('\n').completed();
 	}
 
-	private static final String INDENT = "  ";
+	// the buffer holding the bytes written (up to its position), null if writing to a Writer
+	public ByteBuffer buffer() {
+		return bytes;
+	}
 
 	private JsonWriter appendLfAndIndent() throws IOException {
 		if (indentLevel >= 0) {
-			append('\n');
-
-			for (int i = 0; i < indentLevel; ++i) {
+			int level = indentLevel + depth;
+			append(LF_AND_INDENTS, 0, 1 + INDENT.length() * Integer.min(level, PRECOMPUTED_INDENT_LEVELS));
+			for (; level > PRECOMPUTED_INDENT_LEVELS; --level) {
 				append(INDENT);
 			}
 		}
@@ -171,18 +233,95 @@ public class JsonWriter {
 		return this;
 	}
 
-	private JsonWriter append(CharSequence csq) throws IOException {
-		w.append(csq);
+	// the bytes of a complete top-level value are written to the output stream
+	private JsonWriter completed() throws IOException {
+		if (depth == 0 && os != null) {
+			writeBytes();
+		}
+
 		return this;
 	}
 
-	private JsonWriter append(CharSequence csq, int start, int end) throws IOException {
-		w.append(csq, start, end);
+	private JsonWriter append(String s) throws IOException {
+		return append(s, 0, s.length());
+	}
+
+	private JsonWriter append(String s, int start, int end) throws IOException {
+		if (w != null) {
+			w.write(s, start, end - start);
+			return this;
+		}
+
+		// bytes are encoded straight into the array of the buffer
+		byte[] array = bytes.array();
+		int position = bytes.arrayOffset() + bytes.position(), limit = bytes.arrayOffset() + bytes.limit();
+		for (int i = start; i < end; ++i) {
+			if (limit - position < 4) {
+				bytes.position(position - bytes.arrayOffset());
+				makeRoom();
+				array = bytes.array();
+				position = bytes.arrayOffset() + bytes.position();
+				limit = bytes.arrayOffset() + bytes.limit();
+			}
+
+			final char c = s.charAt(i);
+			if (c < 0x80) {
+				array[position++] = (byte) c;
+			} else if (c < 0x800) {
+				array[position++] = (byte) (0xc0 | (c >> 6));
+				array[position++] = (byte) (0x80 | (c & 0x3f));
+			} else if (isHighSurrogate(c) && i + 1 < end && isLowSurrogate(s.charAt(i + 1))) {
+				final int codePoint = toCodePoint(c, s.charAt(++i));
+				array[position++] = (byte) (0xf0 | (codePoint >> 18));
+				array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				array[position++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (isSurrogate(c)) {
+				// unpaired surrogates are replaced, as by String.getBytes
+				array[position++] = '?';
+			} else {
+				array[position++] = (byte) (0xe0 | (c >> 12));
+				array[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				array[position++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		bytes.position(position - bytes.arrayOffset());
 		return this;
 	}
 
 	private JsonWriter append(char c) throws IOException {
-		w.append(c);
+		if (w != null) {
+			w.write(c);
+			return this;
+		}
+
+		// only ASCII characters are appended one by one
+		if (!bytes.hasRemaining()) {
+			makeRoom();
+		}
+		bytes.put((byte) c);
 		return this;
 	}
+
+	private void makeRoom() throws IOException {
+		if (os != null) {
+			writeBytes();
+		} else {
+			final ByteBuffer largerBytes = ByteBuffer.allocate(Integer.max(2 * bytes.capacity(), 64));
+			bytes.flip();
+			bytes = largerBytes.put(bytes);
+		}
+	}
+
+	private void writeBytes() throws IOException {
+		os.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+		bytes.clear();
+	}
+
+	private static ByteBuffer checkHasArray(ByteBuffer buffer) {
+		if (!buffer.hasArray()) {
+			throw new IllegalArgumentException("buffer is not backed by an accessible array");
+		}
+		return buffer;
+	}
 }
@@ -0,0 +1,71 @@
+package fr.eimonku.json;
+
+import static java.lang.String.format;
+
+// canonical instances of short strings (such as the keys, and some values, repeated by every entry of an index), so that
+// readers sharing a table do not allocate them again; the table is bounded: each string takes the slot of its hash,
+// evicting the previous one, so that frequently repeated strings stay; it may be shared by readers of several threads
+// (slots are written without synchronization, which at worst misses a canonical instance)
+public class SymbolTable {
+	private static final int DEFAULT_CAPACITY = 1_024, DEFAULT_MAX_LENGTH = 32;
+
+	private final String[] symbols;
+	private final int maxLength;
+
+	public SymbolTable() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+	}
+
+	// capacity is rounded up to a power of two, strings longer than maxLength are not canonicalized
+	public SymbolTable(int capacity, int maxLength) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException(format("invalid capacity %s", capacity));
+		}
+		if (maxLength < 0) {
+			throw new IllegalArgumentException(format("invalid max length %s", maxLength));
+		}
+
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		symbols = new String[size];
+		this.maxLength = maxLength;
+	}
+
+	// the characters are compared to the string of their slot before allocating a new one
+	String symbol(char[] chars, int offset, int length) {
+		if (length > maxLength) {
+			return new String(chars, offset, length);
+		}
+
+		// same hash as String.hashCode, so that the one cached by the string of the slot can be compared first
+		int hash = 0;
+		for (int i = offset; i < offset + length; ++i) {
+			hash = 31 * hash + chars[i];
+		}
+
+		final int slot = (hash ^ (hash >>> 16)) & (symbols.length - 1);
+		final String symbol = symbols[slot];
+		if (symbol != null && symbol.hashCode() == hash && equals(symbol, chars, offset, length)) {
+			return symbol;
+		}
+
+		final String string = new String(chars, offset, length);
+		symbols[slot] = string;
+		return string;
+	}
+
+	private static boolean equals(String string, char[] chars, int offset, int length) {
+		if (string.length() != length) {
+			return false;
+		}
+
+		for (int i = 0; i < length; ++i) {
+			if (string.charAt(i) != chars[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,49 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.String.format;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.regex.Pattern.compile;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+// one uncompressed cache_%07d.html file per document
+public class DirectoryDocumentStore implements DocumentStore {
+	static final Pattern FILE_NAME_PATTERN = compile("cache_(\\d+)\\.html");
+
+	private final Path dir;
+
+	public DirectoryDocumentStore(Path dir) {
+		this.dir = requireNonNull(dir, "dir");
+	}
+
+	@Override
+	public long write(long id, InputStream body) throws IOException {
+		final long size = copy(body, path(id), REPLACE_EXISTING);
+		try (final FileChannel channel = FileChannel.open(path(id), WRITE)) {
+			channel.force(false);
+		}
+		return size;
+	}
+
+	@Override
+	public InputStream read(long id) throws IOException {
+		return new BufferedInputStream(newInputStream(path(id)));
+	}
+
+	@Override
+	public void close() {
+	}
+
+	Path path(long id) {
+		return dir.resolve(format("cache_%07d.html", id));
+	}
+}
@@ -0,0 +1,17 @@
+package fr.eimonku.wikimedia;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+// storage of the cached documents bodies, by id
+public interface DocumentStore extends Closeable {
+	// body is read to the end (but not closed) without being held in memory, it is durable (forced to disk) once write
+	// returns, returns the number of bytes written
+	long write(long id, InputStream body) throws IOException;
+
+	InputStream read(long id) throws IOException;
+
+	@Override
+	void close() throws IOException;
+}
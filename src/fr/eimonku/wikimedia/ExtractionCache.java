@@ -0,0 +1,198 @@
+package fr.eimonku.wikimedia;
+
+import static fr.eimonku.wikimedia.WikimediaCache.writeBytesAtomically;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.Objects.requireNonNull;
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.Logger;
+
+import fr.eimonku.json.JsonLinesReader;
+import fr.eimonku.json.JsonLinesWriter;
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonWriter;
+import fr.eimonku.json.SymbolTable;
+
+// values extracted from cached documents, by document id and extractor (name and version), or resolved without
+// downloading a document, by its url and extractor, persisted as JSON lines
+class ExtractionCache implements Closeable {
+	private static final Logger logger = getLogger();
+	private static final String FILE_NAME = "extractions.json";
+
+	private final Path path;
+	private final Map<Long, Map<String, Object>> valuesByIds = new ConcurrentSkipListMap<>();
+	private final Map<String, Map<String, Object>> valuesByUrls = new ConcurrentSkipListMap<>();
+	private Writer writer;
+	private int lines = 0;
+	private boolean truncated = false;
+
+	ExtractionCache(Path dir) {
+		path = dir.resolve(FILE_NAME);
+
+		read();
+
+		if (truncated) {
+			compact();
+		}
+	}
+
+	Object get(long id, String extractorName, int extractorVersion) {
+		final Map<String, Object> values = valuesByIds.get(id);
+		return (values != null) ? values.get(key(extractorName, extractorVersion)) : null;
+	}
+
+	Object get(String url, String extractorName, int extractorVersion) {
+		final Map<String, Object> values = valuesByUrls.get(url);
+		return (values != null) ? values.get(key(extractorName, extractorVersion)) : null;
+	}
+
+	void put(long id, String extractorName, int extractorVersion, Object value) {
+		final String key = key(extractorName, extractorVersion);
+		putValue(valuesByIds, id, key, value);
+
+		final Map<String, Object> entry = new LinkedHashMap<>();
+		entry.put("id", id);
+		entry.put("key", key);
+		entry.put("value", value);
+		append(entry);
+	}
+
+	// values by urls are never invalidated, they must not depend on the content of the document at url
+	void put(String url, String extractorName, int extractorVersion, Object value) {
+		final String key = key(extractorName, extractorVersion);
+		putValue(valuesByUrls, url, key, value);
+
+		final Map<String, Object> entry = new LinkedHashMap<>();
+		entry.put("url", url);
+		entry.put("key", key);
+		entry.put("value", value);
+		append(entry);
+	}
+
+	// forgets every value extracted from a document which has changed
+	void invalidate(long id) {
+		if (valuesByIds.remove(id) != null) {
+			final Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("id", id);
+			append(entry);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("unable to close extractions file", e);
+		}
+
+		if (lines > size()) {
+			compact();
+		}
+	}
+
+	private int size() {
+		return valuesByIds.values().stream().mapToInt(Map::size).sum()
+		    + valuesByUrls.values().stream().mapToInt(Map::size).sum();
+	}
+
+	// document is the id or the url of the document
+	private static <D> void putValue(Map<D, Map<String, Object>> valuesByDocuments, D document, String key,
+	    Object value) {
+		final Map<String, Object> values = valuesByDocuments.computeIfAbsent(document, k -> new ConcurrentHashMap<>());
+		final String extractorPrefix = key.substring(0, key.lastIndexOf('/') + 1);
+		values.keySet().removeIf(k -> k.startsWith(extractorPrefix) && !k.equals(key));
+		values.put(key, value);
+	}
+
+	private void read() {
+		try {
+			new JsonLinesReader(path).symbols(new SymbolTable()).readMaps(entry -> {
+				final String key = (String) entry.get("key");
+				final String url = (String) entry.get("url");
+				if (url != null) {
+					putValue(valuesByUrls, url, requireNonNull(key), entry.get("value"));
+				} else if (key != null) {
+					putValue(valuesByIds, (Long) entry.get("id"), key, entry.get("value"));
+				} else {
+					valuesByIds.remove((Long) entry.get("id"));
+				}
+
+				++lines;
+			});
+		} catch (InvalidJsonException e) {
+			logger.warn("Extractions file: ignoring invalid entry and what follows", e);
+			truncated = true;
+		} catch (NoSuchFileException e) {
+		} catch (IOException | ClassCastException | NullPointerException e) {
+			throw new RuntimeException("unable to read extractions file", e);
+		}
+	}
+
+	private synchronized void append(Map<String, Object> entry) {
+		try {
+			if (writer == null) {
+				writer = newBufferedWriter(path, UTF_8, CREATE, APPEND);
+			}
+
+			new JsonWriter(writer).appendMap(entry);
+			writer.append('\n').flush();
+			++lines;
+		} catch (IOException e) {
+			throw new RuntimeException("unable to append to extractions file", e);
+		}
+	}
+
+	private synchronized void compact() {
+		writeBytesAtomically(path, os -> {
+			final JsonLinesWriter w = new JsonLinesWriter(os);
+			for (final Entry<Long, Map<String, Object>> values : valuesByIds.entrySet()) {
+				for (final Entry<String, Object> value : values.getValue().entrySet()) {
+					final Map<String, Object> entry = new LinkedHashMap<>();
+					entry.put("id", values.getKey());
+					entry.put("key", value.getKey());
+					entry.put("value", value.getValue());
+					w.append(entry);
+				}
+			}
+			for (final Entry<String, Map<String, Object>> values : valuesByUrls.entrySet()) {
+				for (final Entry<String, Object> value : values.getValue().entrySet()) {
+					final Map<String, Object> entry = new LinkedHashMap<>();
+					entry.put("url", values.getKey());
+					entry.put("key", value.getKey());
+					entry.put("value", value.getValue());
+					w.append(entry);
+				}
+			}
+		});
+
+		lines = size();
+		truncated = false;
+	}
+
+	private static String key(String extractorName, int extractorVersion) {
+		if (extractorName.indexOf('/') >= 0) {
+			throw new IllegalArgumentException(format("invalid extractor name '%s'", extractorName));
+		}
+
+		return extractorName + '/' + extractorVersion;
+	}
+}
@@ -0,0 +1,215 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// limits the number of concurrent requests (globally and per host) and the request rate per host (token bucket),
+// callers block until they are allowed to proceed
+public class FetchScheduler {
+	private static final int DEFAULT_MAX_CONCURRENCY = 16, DEFAULT_MAX_CONCURRENCY_PER_HOST = 4;
+	private static final double DEFAULT_REQUESTS_PER_SECOND_PER_HOST = 10;
+	private static final AtomicInteger threads = new AtomicInteger();
+
+	private final int maxConcurrency;
+	private final Semaphore permits;
+	private final int defaultMaxConcurrencyPerHost;
+	private final double defaultRequestsPerSecondPerHost;
+	private final Map<String, HostLimits> limitsByHosts = new ConcurrentHashMap<>();
+	// the threads of forEach, kept between calls
+	private final ExecutorService executor = newCachedThreadPool(r -> {
+		final Thread thread = new Thread(r, format("fetch-scheduler-%s", threads.incrementAndGet()));
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public FetchScheduler() {
+		this(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY_PER_HOST, DEFAULT_REQUESTS_PER_SECOND_PER_HOST);
+	}
+
+	public FetchScheduler(int maxConcurrency, int maxConcurrencyPerHost, double requestsPerSecondPerHost) {
+		checkLimits(maxConcurrency, maxConcurrencyPerHost, requestsPerSecondPerHost);
+
+		this.maxConcurrency = maxConcurrency;
+		permits = new Semaphore(maxConcurrency, true);
+		defaultMaxConcurrencyPerHost = maxConcurrencyPerHost;
+		defaultRequestsPerSecondPerHost = requestsPerSecondPerHost;
+	}
+
+	public FetchScheduler hostLimits(String host, int maxConcurrency, double requestsPerSecond) {
+		checkLimits(maxConcurrency, maxConcurrency, requestsPerSecond);
+
+		limitsByHosts.put(host, new HostLimits(maxConcurrency, requestsPerSecond));
+		return this;
+	}
+
+	int maxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public <T> T execute(String url, FetchAction<T> action) throws IOException {
+		final Permit permit = acquire(url);
+		try {
+			return action.fetch();
+		} finally {
+			permit.release();
+		}
+	}
+
+	// waits until a request to url is allowed, the permit must be released once the request is complete (possibly by
+	// another thread); the host permit and token are acquired before the global permit, so that requests waiting for a
+	// throttled host do not hold global permits while requests to other hosts could proceed
+	Permit acquire(String url) {
+		final HostLimits hostLimits = hostLimits(url);
+
+		acquire(hostLimits.permits);
+		try {
+			hostLimits.awaitToken();
+			acquire(permits);
+		} catch (RuntimeException e) {
+			hostLimits.permits.release();
+			throw e;
+		}
+
+		return () -> {
+			permits.release();
+			hostLimits.permits.release();
+		};
+	}
+
+	// runs action on every element using at most maxConcurrency (pooled) threads, the first failure is rethrown once
+	// every element has been processed
+	public <T> void forEach(Collection<? extends T> elements, Consumer<? super T> action) {
+		if (elements.isEmpty()) {
+			return;
+		}
+
+		final Queue<T> queue = new ConcurrentLinkedQueue<>(elements);
+		final Queue<RuntimeException> failures = new ConcurrentLinkedQueue<>();
+		final List<Future<?>> workers = new ArrayList<>();
+		try {
+			for (int i = min(maxConcurrency, elements.size()); i > 0; --i) {
+				workers.add(executor.submit(() -> {
+					T element;
+					while ((element = queue.poll()) != null) {
+						try {
+							action.accept(element);
+						} catch (RuntimeException e) {
+							failures.add(e);
+						}
+					}
+				}));
+			}
+
+			for (final Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					failures.add(new RuntimeException(e.getCause()));
+				} catch (InterruptedException e) {
+					currentThread().interrupt();
+					throw new RuntimeException("interrupted", e);
+				}
+			}
+		} finally {
+			workers.forEach(worker -> worker.cancel(true));
+		}
+
+		final RuntimeException exception = failures.poll();
+		if (exception != null) {
+			failures.forEach(exception::addSuppressed);
+			throw exception;
+		}
+	}
+
+	private HostLimits hostLimits(String url) {
+		final String host;
+		try {
+			host = new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(format("invalid URL '%s'", url), e);
+		}
+
+		return limitsByHosts.computeIfAbsent(host,
+		    k -> new HostLimits(defaultMaxConcurrencyPerHost, defaultRequestsPerSecondPerHost));
+	}
+
+	private static void acquire(Semaphore semaphore) {
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+			throw new RuntimeException("interrupted", e);
+		}
+	}
+
+	private static void checkLimits(int maxConcurrency, int maxConcurrencyPerHost, double requestsPerSecond) {
+		if (maxConcurrency <= 0 || maxConcurrencyPerHost <= 0 || !(requestsPerSecond > 0)) {
+			throw new IllegalArgumentException(format("invalid limits %s, %s, %s", maxConcurrency, maxConcurrencyPerHost,
+			    requestsPerSecond));
+		}
+	}
+
+	private static class HostLimits {
+		final Semaphore permits;
+		final double requestsPerNano, capacity;
+		double tokens;
+		long lastRefill = nanoTime();
+
+		HostLimits(int maxConcurrency, double requestsPerSecond) {
+			permits = new Semaphore(maxConcurrency, true);
+			requestsPerNano = requestsPerSecond / 1e9;
+			capacity = tokens = max(1, requestsPerSecond);
+		}
+
+		void awaitToken() {
+			final long waitNanos;
+			synchronized (this) {
+				final long now = nanoTime();
+				tokens = min(capacity, tokens + (now - lastRefill) * requestsPerNano);
+				lastRefill = now;
+
+				// a missing token is reserved anyway, the caller then waits for it to be refilled
+				waitNanos = (--tokens >= 0) ? 0 : (long) (-tokens / requestsPerNano);
+			}
+
+			if (waitNanos > 0) {
+				try {
+					NANOSECONDS.sleep(waitNanos);
+				} catch (InterruptedException e) {
+					currentThread().interrupt();
+					throw new RuntimeException("interrupted", e);
+				}
+			}
+		}
+	}
+
+	static interface Permit {
+		void release();
+	}
+
+	public static interface FetchAction<T> {
+		T fetch() throws IOException;
+	}
+}
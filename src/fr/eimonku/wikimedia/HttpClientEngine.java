@@ -0,0 +1,285 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.Long.parseLong;
+import static java.lang.Math.max;
+import static java.lang.String.format;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.http.HttpClient.Redirect.NORMAL;
+import static java.net.http.HttpClient.Version.HTTP_2;
+import static java.net.http.HttpResponse.BodyHandlers.ofInputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Locale.ROOT;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.delayedExecutor;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import org.jsoup.HttpStatusException;
+
+import fr.eimonku.wikimedia.FetchScheduler.Permit;
+
+// requests are sent asynchronously by a shared HttpClient, over HTTP/2 when the server supports it (concurrent requests
+// to a host are then multiplexed over one connection) and over keep-alive HTTP/1.1 connections otherwise; they are
+// admitted by a FetchScheduler (asynchronous requests wait for it on a pool of daemon threads, which are released once
+// the request is sent), failed attempts (I/O errors while sending the request or reading the body, 5xx and 429
+// responses) are retried with exponential backoff and jitter, failures of the response handler itself are not
+public class HttpClientEngine implements HttpEngine {
+	private static final int MAX_ATTEMPTS = 3;
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10), RESPONSE_TIMEOUT = Duration.ofSeconds(30);
+	private static final long BASE_RETRY_DELAY_MILLIS = 1_000, MAX_RETRY_DELAY_MILLIS = 30_000;
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final AtomicInteger threads = new AtomicInteger();
+
+	private final FetchScheduler scheduler;
+	private final WikimediaMetrics metrics;
+	private final HttpClient client;
+	private final ExecutorService executor;
+
+	public HttpClientEngine() {
+		this(new FetchScheduler(), new WikimediaMetrics());
+	}
+
+	public HttpClientEngine(FetchScheduler scheduler, WikimediaMetrics metrics) {
+		this.scheduler = requireNonNull(scheduler, "scheduler");
+		this.metrics = requireNonNull(metrics, "metrics");
+
+		client = HttpClient.newBuilder().version(HTTP_2).followRedirects(NORMAL).connectTimeout(CONNECT_TIMEOUT).build();
+		executor = newFixedThreadPool(scheduler.maxConcurrency(), r -> {
+			final Thread thread = new Thread(r, format("http-engine-%s", threads.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public <T> T get(String url, Supplier<Map<String, String>> headers, ResponseHandler<T> handler) throws IOException {
+		try {
+			// the first attempt is admitted on the calling thread
+			return send(url, headers, handler, 1, Runnable::run).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public <T> CompletableFuture<T> getAsync(String url, Supplier<Map<String, String>> headers,
+	    ResponseHandler<T> handler) {
+		return send(url, headers, handler, 1, executor);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private <T> CompletableFuture<T> send(String url, Supplier<Map<String, String>> headers,
+	    ResponseHandler<T> handler, int attempt, Executor admissionExecutor) {
+		return supplyAsync(() -> scheduler.acquire(url), admissionExecutor).thenCompose(permit -> {
+			final long start = metrics.fetch.start();
+			CompletableFuture<T> future;
+			try {
+				future = client.sendAsync(request(url, headers.get()), ofInputStream()).handle((response, e) -> {
+					if (e != null) {
+						final Throwable cause = cause(e);
+						throw new CompletionException((cause instanceof IOException) ? new RetryableException(cause) : cause);
+					}
+					return handle(url, response, handler);
+				});
+			} catch (RuntimeException e) {
+				future = failedFuture(e);
+			}
+			return future.whenComplete((value, e) -> {
+				metrics.fetch.stop(start);
+				permit.release();
+			});
+		}).exceptionallyCompose(e -> {
+			final Throwable cause = cause(e);
+			if (!(cause instanceof RetryableException)) {
+				return failedFuture(cause);
+			}
+
+			final RetryableException retryable = (RetryableException) cause;
+			if (attempt >= MAX_ATTEMPTS) {
+				return failedFuture((retryable.statusCode != 0)
+				    ? new HttpStatusException("HTTP error fetching URL", retryable.statusCode, url) : retryable.getCause());
+			}
+
+			metrics.retries.increment();
+			final long retryDelay = max(retryDelay(attempt), retryable.retryAfterMillis);
+			return send(url, headers, handler, attempt + 1, delayedExecutor(retryDelay, MILLISECONDS, executor));
+		});
+	}
+
+	private static HttpRequest request(String url, Map<String, String> headers) {
+		final HttpRequest.Builder builder = HttpRequest.newBuilder(uri(url)).timeout(RESPONSE_TIMEOUT)
+		    .header("Accept-Encoding", "gzip");
+		headers.forEach(builder::setHeader);
+		return builder.build();
+	}
+
+	private <T> T handle(String url, HttpResponse<InputStream> response, ResponseHandler<T> handler) {
+		final int statusCode = response.statusCode();
+		if (statusCode / 100 != 2 && statusCode != HTTP_NOT_MODIFIED) {
+			// the error body is read to the end so that the connection can be reused
+			try (final InputStream in = response.body()) {
+				in.transferTo(OutputStream.nullOutputStream());
+			} catch (IOException e) {
+				throw new CompletionException(new RetryableException(e));
+			}
+
+			if (statusCode / 100 == 5 || statusCode == HTTP_TOO_MANY_REQUESTS) {
+				throw new CompletionException(
+				    new RetryableException(statusCode, retryAfterMillis(response.headers().firstValue("Retry-After"))));
+			}
+			throw new CompletionException(new HttpStatusException("HTTP error fetching URL", statusCode, url));
+		}
+
+		final Map<String, String> responseHeaders = new HashMap<>();
+		for (final Entry<String, List<String>> header : response.headers().map().entrySet()) {
+			if (!header.getValue().isEmpty()) {
+				responseHeaders.put(header.getKey().toLowerCase(ROOT), header.getValue().get(0));
+			}
+		}
+
+		final BodyInputStream body = new BodyInputStream(response.body());
+		try (final InputStream in = "gzip".equals(responseHeaders.get("content-encoding")) ? new GZIPInputStream(body)
+		    : body) {
+			return handler.handle(new Response(response.uri().toString(), statusCode, responseHeaders, in));
+		} catch (IOException | RuntimeException e) {
+			// the handler fails because of the transfer (and may then be retried) if reading the body failed
+			throw new CompletionException((body.failure != null) ? new RetryableException(body.failure) : e);
+		}
+	}
+
+	// characters which are not allowed in URIs (such as non-ASCII ones) are percent-encoded
+	private static URI uri(String url) {
+		try {
+			return new URI(url);
+		} catch (URISyntaxException e) {
+		}
+
+		final StringBuilder sb = new StringBuilder();
+		for (final byte b : url.getBytes(UTF_8)) {
+			if (b > 0x20 && b < 0x7f && "\"<>\\^`{|}".indexOf(b) < 0) {
+				sb.append((char) b);
+			} else {
+				sb.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)))
+				    .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+			}
+		}
+		try {
+			return new URI(sb.toString());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(format("invalid URL '%s'", url), e);
+		}
+	}
+
+	private static Throwable cause(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	}
+
+	// full jitter: a random delay up to an exponentially growing bound, so that concurrent retries are spread out
+	private static long retryDelay(int attempt) {
+		final long bound = Long.min(MAX_RETRY_DELAY_MILLIS, BASE_RETRY_DELAY_MILLIS << (attempt - 1));
+		return bound / 2 + ThreadLocalRandom.current().nextLong(bound / 2 + 1);
+	}
+
+	private static long retryAfterMillis(Optional<String> retryAfter) {
+		try {
+			return retryAfter.isPresent() ? Long.min(MAX_RETRY_DELAY_MILLIS, parseLong(retryAfter.get().trim()) * 1_000)
+			    : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	// counts the bytes downloaded and records whether reading them failed
+	private class BodyInputStream extends FilterInputStream {
+		IOException failure;
+
+		BodyInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				final int b = super.read();
+				if (b >= 0) {
+					metrics.bytesDownloaded.increment();
+				}
+				return b;
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				final int n = super.read(b, off, len);
+				if (n > 0) {
+					metrics.bytesDownloaded.add(n);
+				}
+				return n;
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+	}
+
+	// a failed transfer (with its cause) or a retryable status
+	private static class RetryableException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		final int statusCode;
+		final long retryAfterMillis;
+
+		RetryableException(Throwable cause) {
+			super(cause);
+			statusCode = 0;
+			retryAfterMillis = 0;
+		}
+
+		RetryableException(int statusCode, long retryAfterMillis) {
+			super(format("HTTP status %s", statusCode));
+			this.statusCode = statusCode;
+			this.retryAfterMillis = retryAfterMillis;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package fr.eimonku.wikimedia;
+
+import static java.util.Locale.ROOT;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+// performs the GET requests of WikimediaCache, WikimediaResources and MediaWikiApi, sharing one engine between them lets
+// requests to the same hosts reuse the same connections
+public interface HttpEngine extends Closeable {
+	// handler is called with a successful (2xx) or not modified (304) response, other statuses fail with an
+	// HttpStatusException once the engine gives up retrying
+	default <T> T get(String url, Map<String, String> headers, ResponseHandler<T> handler) throws IOException {
+		return get(url, () -> headers, handler);
+	}
+
+	// headers are requested again for every attempt (so that a retry may resume a partial download)
+	<T> T get(String url, Supplier<Map<String, String>> headers, ResponseHandler<T> handler) throws IOException;
+
+	default <T> CompletableFuture<T> getAsync(String url, Map<String, String> headers, ResponseHandler<T> handler) {
+		return getAsync(url, () -> headers, handler);
+	}
+
+	<T> CompletableFuture<T> getAsync(String url, Supplier<Map<String, String>> headers, ResponseHandler<T> handler);
+
+	public static interface ResponseHandler<T> {
+		// the body (already decompressed) is closed once handle returns, handle may be called again if reading the body
+		// failed and the request is retried (its other failures are not retried)
+		T handle(Response response) throws IOException;
+	}
+
+	public static class Response {
+		private final String url;
+		private final int statusCode;
+		private final Map<String, String> headers;
+		private final InputStream body;
+
+		// headers are keyed by lower case names
+		Response(String url, int statusCode, Map<String, String> headers, InputStream body) {
+			this.url = url;
+			this.statusCode = statusCode;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		public String url() {
+			return url;
+		}
+
+		public int statusCode() {
+			return statusCode;
+		}
+
+		public String header(String name) {
+			return headers.get(name.toLowerCase(ROOT));
+		}
+
+		public InputStream body() {
+			return body;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package fr.eimonku.wikimedia;
+
+import static fr.eimonku.wikimedia.WikimediaCache.hex;
+import static fr.eimonku.wikimedia.WikimediaCache.sha256Digest;
+import static fr.eimonku.wikimedia.WikimediaCache.writeBytesAtomically;
+import static java.lang.String.format;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createLink;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.Logger;
+
+import fr.eimonku.json.JsonLinesReader;
+import fr.eimonku.json.JsonLinesWriter;
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonWriter;
+import fr.eimonku.json.SymbolTable;
+import fr.eimonku.wikimedia.WikimediaCache.OutputStreamAction;
+
+// media files stored once by SHA-256 (in files named after it) and shared by every deck, the downloaded urls (with the
+// checksum, size and ETag of their files) are recorded in a manifest persisted as JSON lines, files are published to
+// media directories as hard links (or copies if linking is not possible)
+class MediaStore implements Closeable {
+	private static final Logger logger = getLogger();
+	private static final String MANIFEST_FILE_NAME = "manifest.json";
+
+	private final Path dir;
+	private final WikimediaMetrics metrics;
+	private final Map<String, Media> mediaByUrls = new ConcurrentSkipListMap<>();
+	private Writer writer;
+	private int lines = 0;
+	private boolean truncated = false;
+
+	MediaStore(Path dir, WikimediaMetrics metrics) {
+		this.dir = requireNonNull(dir, "dir");
+		this.metrics = requireNonNull(metrics, "metrics");
+
+		try {
+			createDirectories(dir);
+		} catch (IOException e) {
+			throw new RuntimeException(format("unable to create directory '%s'", dir), e);
+		}
+
+		readManifestFile();
+
+		if (truncated) {
+			compact();
+		}
+	}
+
+	// null if url has not been stored (or if its file has been removed or has not the recorded size), the stored file is
+	// not read
+	Media media(String url) {
+		final Media media = mediaByUrls.get(url);
+		return (media != null && hasSize(path(media.sha256), media.size)) ? media : null;
+	}
+
+	// the body written by action is stored unless an identical file is already
+	Media put(String url, String etag, OutputStreamAction action) throws IOException {
+		final Path tmpPath = createTempFile(dir, "media", ".tmp");
+		try {
+			final MessageDigest digest = sha256Digest();
+			try (final OutputStream os = new DigestOutputStream(new BufferedOutputStream(newOutputStream(tmpPath)),
+			    digest)) {
+				action.accept(os);
+			}
+			final Media media = new Media(hex(digest.digest()), size(tmpPath), etag, currentTimeMillis());
+
+			final Path path = path(media.sha256);
+			if (!hasSize(path, media.size)) {
+				move(tmpPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+				metrics.bytesWritten.add(media.size);
+			}
+
+			addMedia(url, media);
+			return media;
+		} finally {
+			deleteIfExists(tmpPath);
+		}
+	}
+
+	// records that the stored file of url has been found unchanged
+	Media revalidated(String url, Media media, String etag) {
+		final Media revalidatedMedia = new Media(media.sha256, media.size, (etag != null) ? etag : media.etag,
+		    currentTimeMillis());
+		addMedia(url, revalidatedMedia);
+		return revalidatedMedia;
+	}
+
+	// the partial download of url, kept between runs so that it can be resumed
+	Path partPath(String url) {
+		return dir.resolve(hex(sha256Digest().digest(url.getBytes(UTF_8))) + ".part");
+	}
+
+	// whether target has already been published from media (its size is checked, it is not read)
+	boolean isPublished(Media media, Path target) {
+		return hasSize(target, media.size);
+	}
+
+	// target is replaced by a hard link to the stored file, or by a copy of it
+	void publish(Media media, Path target) throws IOException {
+		final Path path = path(media.sha256);
+		final Path tmpPath = target.resolveSibling(target.getFileName() + ".tmp");
+		deleteIfExists(tmpPath);
+		try {
+			try {
+				createLink(tmpPath, path);
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				try (final FileChannel in = FileChannel.open(path, READ);
+				    final FileChannel out = FileChannel.open(tmpPath, CREATE, WRITE)) {
+					for (long position = 0, size = in.size(); position < size;) {
+						position += in.transferTo(position, size - position, out);
+					}
+					metrics.bytesWritten.add(in.size());
+				}
+			}
+			move(tmpPath, target, REPLACE_EXISTING, ATOMIC_MOVE);
+		} finally {
+			deleteIfExists(tmpPath);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("unable to close media manifest file", e);
+		}
+
+		if (lines > mediaByUrls.size()) {
+			compact();
+		}
+	}
+
+	private void addMedia(String url, Media media) {
+		mediaByUrls.put(url, media);
+
+		final Map<String, Object> entry = new LinkedHashMap<>();
+		entry.put("url", url);
+		entry.putAll(media.properties());
+		append(entry);
+	}
+
+	private void readManifestFile() {
+		try {
+			new JsonLinesReader(manifestPath()).symbols(new SymbolTable()).readMaps(entry -> {
+				mediaByUrls.put((String) requireNonNull(entry.get("url")), new Media(entry));
+				++lines;
+			});
+		} catch (InvalidJsonException e) {
+			logger.warn("Media manifest file: ignoring invalid entry and what follows", e);
+			truncated = true;
+		} catch (NoSuchFileException e) {
+		} catch (IOException | ClassCastException | NullPointerException e) {
+			throw new RuntimeException("unable to read media manifest file", e);
+		}
+	}
+
+	private synchronized void append(Map<String, Object> entry) {
+		try {
+			if (writer == null) {
+				writer = newBufferedWriter(manifestPath(), UTF_8, CREATE, APPEND);
+			}
+
+			new JsonWriter(writer).appendMap(entry);
+			writer.append('\n').flush();
+			++lines;
+		} catch (IOException e) {
+			throw new RuntimeException("unable to append to media manifest file", e);
+		}
+	}
+
+	private synchronized void compact() {
+		writeBytesAtomically(manifestPath(), os -> {
+			final JsonLinesWriter w = new JsonLinesWriter(os);
+			for (final Entry<String, Media> media : mediaByUrls.entrySet()) {
+				final Map<String, Object> entry = new LinkedHashMap<>();
+				entry.put("url", media.getKey());
+				entry.putAll(media.getValue().properties());
+				w.append(entry);
+			}
+		});
+
+		lines = mediaByUrls.size();
+		truncated = false;
+	}
+
+	private Path path(String sha256) {
+		return dir.resolve(sha256);
+	}
+
+	private Path manifestPath() {
+		return dir.resolve(MANIFEST_FILE_NAME);
+	}
+
+	private static boolean hasSize(Path path, long size) {
+		try {
+			return size(path) == size;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	static class Media {
+		final String sha256, etag;
+		final long size, fetchedAt;
+
+		Media(String sha256, long size, String etag, long fetchedAt) {
+			this.sha256 = requireNonNull(sha256, "sha256");
+			this.size = size;
+			this.etag = etag;
+			this.fetchedAt = fetchedAt;
+		}
+
+		Media(Map<?, ?> properties) {
+			this((String) properties.get("sha256"), (Long) properties.get("size"), (String) properties.get("etag"),
+			    (Long) properties.get("fetchedAt"));
+		}
+
+		Map<String, Object> properties() {
+			final Map<String, Object> properties = new LinkedHashMap<>();
+			properties.put("sha256", sha256);
+			properties.put("size", size);
+			if (etag != null) {
+				properties.put("etag", etag);
+			}
+			properties.put("fetchedAt", fetchedAt);
+			return properties;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.lang.String.join;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyMap;
+import static java.util.Objects.requireNonNull;
+import static java.util.regex.Pattern.compile;
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.Logger;
+
+import fr.eimonku.json.JsonReader;
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonReader.Token;
+
+// resolves page urls to their canonical urls, and file description page urls to the urls of their original files
+// (following redirects and title normalizations), with batched queries to the MediaWiki API of their site; the rendered
+// HTML of other pages is not queried, the API only returns it one page at a time (action=parse)
+class MediaWikiApi {
+	private static final Logger logger = getLogger();
+	private static final Pattern PAGE_URL_PATTERN = compile("(https?://[^/]+)/wiki/([^?#]+)");
+	private static final int MAX_TITLES_PER_QUERY = 50;
+
+	private final HttpEngine engine;
+
+	MediaWikiApi(HttpEngine engine) {
+		this.engine = requireNonNull(engine, "engine");
+	}
+
+	// urls which are not page urls, or which cannot be resolved, are left out
+	Map<String, String> canonicalUrls(Collection<String> urls) {
+		return resolve(urls, "prop=info&inprop=url",
+		    page -> !page.containsKey("missing") ? (String) page.get("canonicalurl") : null);
+	}
+
+	// the url of the file is the one the page links to (div.fullMedia), files of a shared repository (such as Wikimedia
+	// Commons) are resolved even though their pages are missing from the site
+	Map<String, String> fullMediaUrls(Collection<String> urls) {
+		return resolve(urls, "prop=imageinfo&iiprop=url", page -> {
+			final List<?> imageInfo = (List<?>) page.get("imageinfo");
+			return (imageInfo != null && !imageInfo.isEmpty()) ? (String) ((Map<?, ?>) imageInfo.get(0)).get("url") : null;
+		});
+	}
+
+	// values of the pages of urls by urls, value returns null for pages which cannot be resolved
+	private Map<String, String> resolve(Collection<String> urls, String properties, Function<Map<?, ?>, String> value) {
+		final Map<String, Map<String, List<String>>> urlsByTitlesBySites = new LinkedHashMap<>();
+		for (final String url : urls) {
+			final Matcher m = PAGE_URL_PATTERN.matcher(url);
+			if (m.matches()) {
+				final String title;
+				try {
+					title = title(m.group(2));
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+
+				urlsByTitlesBySites.computeIfAbsent(m.group(1), k -> new LinkedHashMap<>())
+				    .computeIfAbsent(title, k -> new ArrayList<>()).add(url);
+			}
+		}
+
+		final Map<String, String> values = new HashMap<>();
+		urlsByTitlesBySites.forEach((site, urlsByTitles) -> {
+			final List<String> titles = new ArrayList<>(urlsByTitles.keySet());
+			for (int i = 0; i < titles.size(); i += MAX_TITLES_PER_QUERY) {
+				final List<String> batch = titles.subList(i, min(i + MAX_TITLES_PER_QUERY, titles.size()));
+				try {
+					query(site, properties, batch, value)
+					    .forEach((title, v) -> urlsByTitles.get(title).forEach(url -> values.put(url, v)));
+				} catch (IOException | RuntimeException e) {
+					logger.warn(format("Unable to resolve %s titles through the API of '%s'", batch.size(), site), e);
+				}
+			}
+		});
+		return values;
+	}
+
+	// values by (requested) titles
+	private Map<String, String> query(String site, String properties, List<String> titles,
+	    Function<Map<?, ?>, String> value) throws IOException {
+		final String apiUrl = site + "/w/api.php?action=query&format=json&redirects&" + properties + "&titles="
+		    + URLEncoder.encode(join("|", titles), "UTF-8");
+		// only the query is read, the other members of the response (warnings, continuation) are skipped
+		final Map<?, ?> query = engine.get(apiUrl, emptyMap(), response -> {
+			try {
+				final JsonReader r = new JsonReader(new InputStreamReader(response.body(), UTF_8));
+				if (r.nextToken() != Token.START_MAP) {
+					throw new IOException("invalid API response");
+				}
+				while (r.nextToken() != Token.END_MAP) {
+					if (r.currentName().equals("query") && r.currentToken() == Token.START_MAP) {
+						return (Map<?, ?>) r.readCurrentValue();
+					}
+					r.skipValue();
+				}
+				return null;
+			} catch (InvalidJsonException e) {
+				throw new IOException("invalid API response", e);
+			}
+		});
+		if (query == null) {
+			throw new RuntimeException("no query in API response");
+		}
+
+		final Map<String, String> renamedTitles = new HashMap<>();
+		for (final String key : new String[] { "normalized", "redirects" }) {
+			final List<?> renames = (List<?>) query.get(key);
+			if (renames != null) {
+				renames.forEach(rename -> renamedTitles.put((String) ((Map<?, ?>) rename).get("from"),
+				    (String) ((Map<?, ?>) rename).get("to")));
+			}
+		}
+
+		final Map<String, String> valuesByPageTitles = new HashMap<>();
+		for (final Object page : ((Map<?, ?>) query.get("pages")).values()) {
+			final Map<?, ?> pageMap = (Map<?, ?>) page;
+			final String pageValue = !pageMap.containsKey("invalid") ? value.apply(pageMap) : null;
+			if (pageValue != null) {
+				valuesByPageTitles.put((String) pageMap.get("title"), pageValue);
+			}
+		}
+
+		final Map<String, String> values = new HashMap<>();
+		for (final String title : titles) {
+			String pageTitle = title;
+			for (int i = 0; i < 2 && renamedTitles.containsKey(pageTitle); ++i) {
+				pageTitle = renamedTitles.get(pageTitle);
+			}
+
+			final String pageValue = valuesByPageTitles.get(pageTitle);
+			if (pageValue != null) {
+				values.put(title, pageValue);
+			}
+		}
+		return values;
+	}
+
+	private static String title(String path) {
+		try {
+			return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8").replace('_', ' ');
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.max;
+import static java.lang.Long.parseLong;
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.newDirectoryStream;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.regex.Pattern.compile;
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.logging.log4j.Logger;
+
+// documents are DEFLATE-compressed and appended to pack_%04d.dat segment files, they are located through pack.idx, a
+// memory-mapped table of fixed-size records indexed by id
+public class PackDocumentStore implements DocumentStore {
+	private static final Logger logger = getLogger();
+	private static final String INDEX_FILE_NAME = "pack.idx";
+	private static final Pattern SEGMENT_FILE_NAME_PATTERN = compile("pack_(\\d+)\\.dat");
+	private static final long MAX_SEGMENT_SIZE = 64L << 20;
+	// segment + 1 (0 for a missing document), offset, compressed length
+	private static final int RECORD_SIZE = 4 + 8 + 4, MIN_INDEX_CAPACITY = 1_024;
+
+	private final Path dir;
+	private final FileChannel indexChannel;
+	private MappedByteBuffer index;
+	private final Map<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+	// writes (appends to the current segment) are serialized by writeLock, records are written and read under recordLock
+	private final Object writeLock = new Object(), recordLock = new Object();
+	private int currentSegment = 0;
+	private long currentSegmentSize = 0;
+
+	public PackDocumentStore(Path dir) throws IOException {
+		this.dir = requireNonNull(dir, "dir");
+
+		indexChannel = FileChannel.open(dir.resolve(INDEX_FILE_NAME), CREATE, READ, WRITE);
+		index = indexChannel.map(READ_WRITE, 0, max(indexChannel.size(), MIN_INDEX_CAPACITY * RECORD_SIZE));
+
+		try (final DirectoryStream<Path> ds = newDirectoryStream(dir, "pack_*.dat")) {
+			for (final Path path : ds) {
+				final Matcher m = SEGMENT_FILE_NAME_PATTERN.matcher(path.getFileName().toString());
+				if (m.matches()) {
+					currentSegment = Integer.max(currentSegment, parseInt(m.group(1)));
+				}
+			}
+		}
+		currentSegmentSize = segment(currentSegment).size();
+
+		// temporary files left by a crash
+		try (final DirectoryStream<Path> ds = newDirectoryStream(dir, "pack*.tmp")) {
+			for (final Path path : ds) {
+				deleteIfExists(path);
+			}
+		}
+
+		migrateDirectoryLayout();
+	}
+
+	// the body is durable once written: its bytes are forced to the segment before its record is written and forced to
+	// the index
+	@Override
+	public long write(long id, InputStream body) throws IOException {
+		// the body is compressed to a temporary file first, so that the write lock is not held while reading it
+		final Path tmpPath = createTempFile(dir, "pack", ".tmp");
+		try {
+			try (final OutputStream os = new DeflaterOutputStream(newOutputStream(tmpPath))) {
+				final byte[] buffer = new byte[8_192];
+				int n;
+				while ((n = body.read(buffer)) >= 0) {
+					os.write(buffer, 0, n);
+				}
+			}
+
+			try (final FileChannel tmpChannel = FileChannel.open(tmpPath, READ)) {
+				final long compressedLength = tmpChannel.size();
+				if (compressedLength > Integer.MAX_VALUE) {
+					throw new IOException(format("document %s too large", id));
+				}
+
+				synchronized (writeLock) {
+					final long offset = append(tmpChannel, 0, compressedLength);
+					segment(currentSegment).force(false);
+					final int position = putRecord(id, currentSegment, offset, (int) compressedLength);
+					index.force(position, RECORD_SIZE);
+				}
+
+				return compressedLength + RECORD_SIZE;
+			}
+		} finally {
+			deleteIfExists(tmpPath);
+		}
+	}
+
+	@Override
+	public InputStream read(long id) throws IOException {
+		final int position = recordPosition(id);
+		final int segment, length;
+		final long offset;
+		synchronized (recordLock) {
+			segment = (position + RECORD_SIZE <= index.capacity()) ? index.getInt(position) - 1 : -1;
+			offset = (segment >= 0) ? index.getLong(position + 4) : -1;
+			length = (segment >= 0) ? index.getInt(position + 12) : -1;
+		}
+		if (segment < 0) {
+			throw new IOException(format("no document %s in pack", id));
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		final FileChannel channel = segment(segment);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException(format("truncated document %s in pack segment %s", id, segment));
+			}
+		}
+
+		return new InflaterInputStream(new ByteArrayInputStream(buffer.array()));
+	}
+
+	// documents must not be read while closing, since the segments mostly holding overwritten documents are compacted
+	@Override
+	public void close() throws IOException {
+		synchronized (writeLock) {
+			compactSegments();
+
+			index.force();
+			indexChannel.close();
+			for (final FileChannel segment : segments.values()) {
+				segment.force(false);
+				segment.close();
+			}
+		}
+	}
+
+	// the documents of the segments in which less than half of the bytes are still referenced (the others belonging to
+	// overwritten documents) are appended to the current segment, then these segments are deleted (once the records of
+	// their documents have been updated and forced)
+	private void compactSegments() throws IOException {
+		final Map<Integer, Long> referencedBytes = new HashMap<>();
+		for (int position = 0; position + RECORD_SIZE <= index.capacity(); position += RECORD_SIZE) {
+			final int segment = index.getInt(position) - 1;
+			if (segment >= 0) {
+				referencedBytes.merge(segment, (long) index.getInt(position + 12), Long::sum);
+			}
+		}
+
+		final Set<Integer> compactedSegments = new TreeSet<>();
+		try (final DirectoryStream<Path> ds = newDirectoryStream(dir, "pack_*.dat")) {
+			for (final Path path : ds) {
+				final Matcher m = SEGMENT_FILE_NAME_PATTERN.matcher(path.getFileName().toString());
+				if (m.matches()) {
+					final int segment = parseInt(m.group(1));
+					final long size = segment(segment).size();
+					if (size > 0 && 2 * referencedBytes.getOrDefault(segment, 0L) < size) {
+						compactedSegments.add(segment);
+					}
+				}
+			}
+		}
+		if (compactedSegments.isEmpty()) {
+			return;
+		}
+
+		if (compactedSegments.contains(currentSegment)) {
+			++currentSegment;
+			currentSegmentSize = 0;
+		}
+
+		// new records (position, segment, offset, length) are written once every copy has been forced
+		final List<long[]> records = new ArrayList<>();
+		final Set<Integer> writtenSegments = new TreeSet<>();
+		for (int position = 0; position + RECORD_SIZE <= index.capacity(); position += RECORD_SIZE) {
+			final int segment = index.getInt(position) - 1;
+			if (compactedSegments.contains(segment)) {
+				final int length = index.getInt(position + 12);
+				final long offset = append(segment(segment), index.getLong(position + 4), length);
+				records.add(new long[] { position, currentSegment, offset, length });
+				writtenSegments.add(currentSegment);
+			}
+		}
+		for (final int segment : writtenSegments) {
+			segment(segment).force(false);
+		}
+
+		for (final long[] record : records) {
+			putRecord(record[0] / RECORD_SIZE, (int) record[1], record[2], (int) record[3]);
+		}
+		index.force();
+
+		long reclaimedBytes = 0;
+		for (final int segment : compactedSegments) {
+			final FileChannel channel = segments.remove(segment);
+			reclaimedBytes += channel.size();
+			channel.close();
+			delete(segmentPath(segment));
+		}
+		logger.info("Compacted {} pack segments ({} bytes reclaimed)", compactedSegments.size(),
+		    reclaimedBytes - records.stream().mapToLong(record -> record[3]).sum());
+	}
+
+	// appends the length bytes of source at position to the current segment (after rolling to a new one if it would
+	// exceed MAX_SEGMENT_SIZE), returns their offset in the current segment
+	private long append(FileChannel source, long position, long length) throws IOException {
+		if (currentSegmentSize > 0 && currentSegmentSize + length > MAX_SEGMENT_SIZE) {
+			segment(currentSegment).force(false);
+			++currentSegment;
+			currentSegmentSize = 0;
+		}
+
+		final long offset = currentSegmentSize;
+		final FileChannel segment = segment(currentSegment);
+		for (long transferred = 0; transferred < length;) {
+			final long n = segment.transferFrom(source.position(position + transferred), offset + transferred,
+			    length - transferred);
+			if (n <= 0) {
+				throw new IOException(format("unable to append %s bytes to pack segment %s", length, currentSegment));
+			}
+			transferred += n;
+		}
+		currentSegmentSize += length;
+		return offset;
+	}
+
+	// the record is written at once (readers take the same lock), the index is grown if needed, returns its position
+	private int putRecord(long id, int segment, long offset, int length) throws IOException {
+		final int position = recordPosition(id);
+		synchronized (recordLock) {
+			if (position + RECORD_SIZE > index.capacity()) {
+				index = indexChannel.map(READ_WRITE, 0, max(2L * index.capacity(), position + RECORD_SIZE));
+			}
+			index.putInt(position, segment + 1).putLong(position + 4, offset).putInt(position + 12, length);
+		}
+		return position;
+	}
+
+	// imports (then deletes) the files of a DirectoryDocumentStore sharing the same directory
+	private void migrateDirectoryLayout() throws IOException {
+		int count = 0;
+		try (final DirectoryStream<Path> ds = newDirectoryStream(dir, "cache_*.html")) {
+			for (final Path path : ds) {
+				final Matcher m = DirectoryDocumentStore.FILE_NAME_PATTERN.matcher(path.getFileName().toString());
+				if (m.matches()) {
+					try (final InputStream is = newInputStream(path)) {
+						write(parseLong(m.group(1)), is);
+					}
+					++count;
+				}
+			}
+		}
+
+		if (count > 0) {
+			try (final DirectoryStream<Path> ds = newDirectoryStream(dir, "cache_*.html")) {
+				for (final Path path : ds) {
+					if (DirectoryDocumentStore.FILE_NAME_PATTERN.matcher(path.getFileName().toString()).matches()) {
+						delete(path);
+					}
+				}
+			}
+
+			logger.info("Migrated {} cached documents to pack files", count);
+		}
+	}
+
+	private FileChannel segment(int segment) throws IOException {
+		final FileChannel channel = segments.get(segment);
+		if (channel != null) {
+			return channel;
+		}
+
+		synchronized (segments) {
+			FileChannel newChannel = segments.get(segment);
+			if (newChannel == null) {
+				newChannel = FileChannel.open(segmentPath(segment), CREATE, READ, WRITE);
+				segments.put(segment, newChannel);
+			}
+			return newChannel;
+		}
+	}
+
+	private Path segmentPath(int segment) {
+		return dir.resolve(format("pack_%04d.dat", segment));
+	}
+
+	private static int recordPosition(long id) {
+		if (id < 0 || id > Integer.MAX_VALUE / RECORD_SIZE - 1) {
+			throw new IllegalArgumentException(format("invalid id %s", id));
+		}
+
+		return (int) id * RECORD_SIZE;
+	}
+}
@@ -0,0 +1,248 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.String.format;
+import static java.math.RoundingMode.HALF_UP;
+import static java.util.Arrays.asList;
+import static java.util.regex.Pattern.compile;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.COMMENT;
+import static javax.xml.stream.XMLStreamConstants.DTD;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.PROCESSING_INSTRUCTION;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_DOCUMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+import static org.apache.logging.log4j.LogManager.getLogger;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.logging.log4j.Logger;
+
+// streaming (StAX) SVG optimisation: comments, metadata and editor (Inkscape, Sodipodi) elements, attributes and
+// namespaces are removed, coordinates are rounded to precision decimals and whitespace is collapsed (except in text)
+public class SvgOptimizer {
+	private static final Logger logger = getLogger();
+	private static final int DEFAULT_PRECISION = 3;
+	private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+	private static final Set<String> STRIPPED_NAMESPACES = new HashSet<>(asList(
+	    "http://www.inkscape.org/namespaces/inkscape", "http://sodipodi.sourceforge.net/DTD/sodipodi-0.dtd",
+	    "http://www.w3.org/1999/02/22-rdf-syntax-ns#", "http://creativecommons.org/ns#",
+	    "http://purl.org/dc/elements/1.1/"));
+	private static final Set<String> COORDINATES_ATTRIBUTES = new HashSet<>(asList("d", "points", "transform", "x",
+	    "y", "x1", "y1", "x2", "y2", "cx", "cy", "r", "rx", "ry", "width", "height"));
+	private static final Set<String> TEXT_ELEMENTS = new HashSet<>(asList("text", "tspan", "textPath", "style"));
+	private static final Pattern NUMBER_PATTERN = compile("-?(?:\\d+\\.\\d*|\\.\\d+|\\d+)(?:[eE][-+]?\\d+)?"),
+	    WHITESPACE_PATTERN = compile("\\s+");
+
+	private final int precision;
+	private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+	private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+	public SvgOptimizer() {
+		this(DEFAULT_PRECISION);
+	}
+
+	public SvgOptimizer(int precision) {
+		if (precision < 0) {
+			throw new IllegalArgumentException(format("invalid precision %s", precision));
+		}
+		this.precision = precision;
+
+		// internal entities (used by some editors for namespaces) are replaced, external ones (and DTDs) are not loaded
+		inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try {
+			inputFactory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", true);
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	// the SVG read from in is written (optimised) to out, its size reduction is logged under name
+	public void optimize(String name, InputStream in, OutputStream out) {
+		final CountingInputStream countingIn = new CountingInputStream(in);
+		final CountingOutputStream countingOut = new CountingOutputStream(out);
+		try {
+			final XMLEventReader r = inputFactory.createXMLEventReader(countingIn);
+			final XMLEventWriter w = outputFactory.createXMLEventWriter(countingOut, "UTF-8");
+			int skippedDepth = 0, textDepth = 0;
+
+			while (r.hasNext()) {
+				final XMLEvent event = r.nextEvent();
+				if (skippedDepth > 0) {
+					if (event.getEventType() == START_ELEMENT) {
+						++skippedDepth;
+					} else if (event.getEventType() == END_ELEMENT) {
+						--skippedDepth;
+					}
+					continue;
+				}
+
+				switch (event.getEventType()) {
+				case START_DOCUMENT:
+					w.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+					break;
+				case START_ELEMENT: {
+					final StartElement startElement = event.asStartElement();
+					if (isStripped(startElement.getName())) {
+						skippedDepth = 1;
+					} else {
+						if (textDepth > 0 || TEXT_ELEMENTS.contains(startElement.getName().getLocalPart())) {
+							++textDepth;
+						}
+						w.add(optimized(startElement));
+					}
+					break;
+				}
+				case END_ELEMENT:
+					if (textDepth > 0) {
+						--textDepth;
+					}
+					w.add(event);
+					break;
+				case CHARACTERS:
+				case SPACE:
+					if (textDepth > 0) {
+						w.add(event);
+					} else if (!event.asCharacters().isWhiteSpace()) {
+						w.add(eventFactory.createCharacters(
+						    WHITESPACE_PATTERN.matcher(event.asCharacters().getData()).replaceAll(" ")));
+					}
+					break;
+				case COMMENT:
+				case PROCESSING_INSTRUCTION:
+				case DTD:
+					break;
+				default:
+					w.add(event);
+				}
+			}
+
+			w.flush();
+			r.close();
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(format("unable to optimize '%s'", name), e);
+		}
+
+		if (countingIn.count > 0) {
+			logger.info("Optimized '{}': {} -> {} bytes (-{}%)", name, countingIn.count, countingOut.count,
+			    100 * (countingIn.count - countingOut.count) / countingIn.count);
+		}
+	}
+
+	private StartElement optimized(StartElement startElement) {
+		final List<Attribute> attributes = new ArrayList<>();
+		for (final Iterator<?> i = startElement.getAttributes(); i.hasNext();) {
+			final Attribute attribute = (Attribute) i.next();
+			if (!isStripped(attribute.getName())) {
+				final String name = attribute.getName().getLocalPart();
+				attributes.add(COORDINATES_ATTRIBUTES.contains(name) && attribute.getName().getNamespaceURI().isEmpty()
+				    ? eventFactory.createAttribute(attribute.getName(), rounded(attribute.getValue())) : attribute);
+			}
+		}
+
+		final List<Namespace> namespaces = new ArrayList<>();
+		for (final Iterator<?> i = startElement.getNamespaces(); i.hasNext();) {
+			final Namespace namespace = (Namespace) i.next();
+			if (!STRIPPED_NAMESPACES.contains(namespace.getNamespaceURI())) {
+				namespaces.add(namespace);
+			}
+		}
+
+		final QName name = startElement.getName();
+		return eventFactory.createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(),
+		    attributes.iterator(), namespaces.iterator());
+	}
+
+	private String rounded(String value) {
+		final Matcher m = NUMBER_PATTERN.matcher(value);
+		final StringBuffer sb = new StringBuffer(value.length());
+		while (m.find()) {
+			final BigDecimal number = new BigDecimal(m.group());
+			String rounded = (number.scale() > precision)
+			    ? number.setScale(precision, HALF_UP).stripTrailingZeros().toPlainString() : m.group();
+			// in path data, ".5" directly follows a number with a decimal point, which rounding may remove
+			if (m.end() < value.length() && value.charAt(m.end()) == '.' && rounded.indexOf('.') < 0) {
+				rounded += ' ';
+			}
+			m.appendReplacement(sb, rounded);
+		}
+		m.appendTail(sb);
+		return WHITESPACE_PATTERN.matcher(sb).replaceAll(" ").trim();
+	}
+
+	private static boolean isStripped(QName name) {
+		return STRIPPED_NAMESPACES.contains(name.getNamespaceURI())
+		    || (SVG_NAMESPACE.equals(name.getNamespaceURI()) && name.getLocalPart().equals("metadata"));
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				++count;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
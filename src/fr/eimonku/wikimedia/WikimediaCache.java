@@ -1,124 +1,533 @@
 package fr.eimonku.wikimedia;
 
-import static java.lang.Long.max;
 import static java.lang.Long.parseLong;
 import static java.lang.String.format;
-import static java.lang.Thread.currentThread;
-import static java.lang.Thread.sleep;
+import static java.lang.System.currentTimeMillis;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
 import static java.nio.file.Files.newBufferedReader;
-import static java.nio.file.Files.newBufferedWriter;
 import static java.nio.file.Files.newInputStream;
-import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
 import static java.util.Objects.requireNonNull;
+import static java.util.regex.Pattern.compile;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
 import static org.apache.logging.log4j.LogManager.getLogger;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.Writer;
-import java.net.SocketTimeoutException;
+import java.io.StringReader;
+import java.lang.ref.SoftReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.Iterator;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.Logger;
-import org.jsoup.Connection.Response;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 import fr.eimonku.json.JsonReader;
 import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonReader.JsonMapListener;
 import fr.eimonku.json.JsonWriter;
+import fr.eimonku.json.SymbolTable;
 
-public class WikimediaCache {
+public class WikimediaCache implements Closeable {
 	private static final Logger logger = getLogger();
-	private static final String IDS_FILE_NAME = "ids.json", PROPERTIES_FILE_NAME = "properties.json";
+	private static final String INDEX_FILE_NAME = "index.bin", IDS_FILE_NAME = "ids.json",
+	    PROPERTIES_FILE_NAME = "properties.json", JOURNAL_FILE_NAME = "journal.json";
+	private static final int INDEX_MAGIC = 0x574d4349, INDEX_VERSION = 2;
+	private static final int DEFAULT_MAX_LOADED_DOCUMENTS = 64, MAX_JOURNAL_ENTRIES = 1_000;
+	private static final String FULL_MEDIA_EXTRACTOR_NAME = "wikimedia.fullMedia";
+	private static final int FULL_MEDIA_EXTRACTOR_VERSION = 1;
+	private static final Pattern CHARSET_PATTERN = compile("(?i)charset=\"?([^\\s;\"]+)");
 
 	private final Path dir;
-	private final Map<Long, CachedDocument> documentsByIds = new LinkedHashMap<>();
-	private final Map<String, Long> idsByUrls = new LinkedHashMap<>();
-	private long nextId = 0;
+	private final Map<Long, CachedDocument> documentsByIds = new ConcurrentSkipListMap<>();
+	private final Map<String, Long> idsByUrls = new ConcurrentSkipListMap<>();
+	private final Map<String, CompletableFuture<Long>> inFlightFetches = new ConcurrentHashMap<>();
+	private final Map<Long, CompletableFuture<Long>> inFlightRevalidations = new ConcurrentHashMap<>();
+	private final Map<String, String> awaitedCanonicalUrls = new HashMap<>();
+	private final Map<Long, SoftReference<Document>> loadedDocuments;
+	private final FetchScheduler scheduler;
+	private final HttpEngine engine;
+	private final boolean ownsEngine;
+	private final MediaWikiApi api;
+	private final DocumentStore store;
+	private final Duration ttl;
+	private final ExtractionCache extractions;
+	private final WikimediaMetrics metrics;
+	private final AtomicLong nextId = new AtomicLong();
+	private final Object journalLock = new Object();
+	private FileChannel journalChannel;
+	private int journalEntries = 0;
+	private boolean journalTruncated = false;
 
 	public WikimediaCache(Path dir) {
+		this(dir, new WikimediaMetrics());
+	}
+
+	public WikimediaCache(Path dir, WikimediaMetrics metrics) {
+		this(dir, new FetchScheduler(), metrics);
+	}
+
+	// the engine created for this cache is closed with it
+	public WikimediaCache(Path dir, FetchScheduler scheduler, WikimediaMetrics metrics) {
+		this(dir, DEFAULT_MAX_LOADED_DOCUMENTS, scheduler, new HttpClientEngine(scheduler, metrics), true,
+		    packDocumentStore(dir), null, metrics);
+	}
+
+	// engine may be shared (with WikimediaResources), it is not closed by this cache
+	public WikimediaCache(Path dir, FetchScheduler scheduler, HttpEngine engine, WikimediaMetrics metrics) {
+		this(dir, scheduler, engine, null, metrics);
+	}
+
+	public WikimediaCache(Path dir, FetchScheduler scheduler, HttpEngine engine, Duration ttl,
+	    WikimediaMetrics metrics) {
+		this(dir, DEFAULT_MAX_LOADED_DOCUMENTS, scheduler, engine, packDocumentStore(dir), ttl, metrics);
+	}
+
+	// documents are parsed on first access, at most maxLoadedDocuments (LRU, softly referenced) are kept in memory,
+	// documents older than ttl (if not null) are revalidated with a conditional GET
+	public WikimediaCache(Path dir, int maxLoadedDocuments, FetchScheduler scheduler, HttpEngine engine,
+	    DocumentStore store, Duration ttl, WikimediaMetrics metrics) {
+		this(dir, maxLoadedDocuments, scheduler, engine, false, store, ttl, metrics);
+	}
+
+	private WikimediaCache(Path dir, int maxLoadedDocuments, FetchScheduler scheduler, HttpEngine engine,
+	    boolean ownsEngine, DocumentStore store, Duration ttl, WikimediaMetrics metrics) {
 		this.dir = requireNonNull(dir, "dir");
+		this.scheduler = requireNonNull(scheduler, "scheduler");
+		this.engine = requireNonNull(engine, "engine");
+		this.ownsEngine = ownsEngine;
+		api = new MediaWikiApi(engine);
+		this.store = requireNonNull(store, "store");
+		this.ttl = ttl;
+		this.metrics = requireNonNull(metrics, "metrics");
+		if (maxLoadedDocuments < 0) {
+			throw new IllegalArgumentException(format("invalid maxLoadedDocuments %s", maxLoadedDocuments));
+		}
+
+		loadedDocuments = new LinkedHashMap<Long, SoftReference<Document>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<Long, SoftReference<Document>> eldest) {
+				return size() > maxLoadedDocuments;
+			}
+		};
+
+		final boolean legacyIndex = !readIndexFile();
+		if (legacyIndex) {
+			readPropertiesFile();
+			readIdsFile();
+		}
+		replayJournalFile();
+		extractions = new ExtractionCache(dir);
 
-		readPropertiesFile();
-		readIdsFile();
+		if (journalTruncated || (legacyIndex && !documentsByIds.isEmpty())) {
+			compact();
+		}
 	}
 
 	public Document get(String url) {
+		final Long id = idsByUrls.get(url);
+		if (id == null) {
+			metrics.misses.increment();
+			return loadedDocument(fetch(url, false));
+		} else if (isStale(documentsByIds.get(id))) {
+			metrics.revalidations.increment();
+			return loadedDocument(revalidate(id));
+		} else {
+			metrics.hits.increment();
+			return loadedDocument(id);
+		}
+	}
+
+	// the canonical url of the document at url, without parsing it if already cached
+	public String canonicalUrl(String url) {
+		final Long id = idsByUrls.get(url);
+		if (id == null) {
+			metrics.misses.increment();
+			return documentsByIds.get(fetch(url, false)).baseUri;
+		}
+
+		return documentsByIds.get(id).baseUri;
+	}
+
+	// values extracted from the document at url are cached (until it changes), so that it is not parsed again, they must
+	// be JSON values (String, Number, Boolean, List, Map) and are read back as such (numbers as Long or Double)
+	@SuppressWarnings("unchecked")
+	public <T> T extract(String url, String extractorName, int extractorVersion, Function<Document, T> extractor) {
 		{
 			final Long id = idsByUrls.get(url);
 			if (id != null) {
-				return documentsByIds.get(id).document;
+				// a stale document is revalidated first, its values are kept if it has not changed
+				if (isStale(documentsByIds.get(id))) {
+					metrics.revalidations.increment();
+					revalidate(id);
+				}
+				final Object value = extractions.get(id, extractorName, extractorVersion);
+				if (value != null) {
+					return (T) value;
+				}
+			}
+		}
+
+		final Document document = get(url);
+		final T value = requireNonNull(extractor.apply(document), "extracted value");
+		extractions.put(idsByUrls.get(url), extractorName, extractorVersion, value);
+		return value;
+	}
+
+	// extract() applied concurrently to every url, values by urls (in the same order)
+	public <T> Map<String, T> extractAll(Collection<String> urls, String extractorName, int extractorVersion,
+	    Function<Document, T> extractor) {
+		prefetch(urls);
+
+		final Map<String, T> values = new ConcurrentHashMap<>();
+		scheduler.forEach(new LinkedHashSet<>(urls),
+		    url -> values.put(url, extract(url, extractorName, extractorVersion, extractor)));
+
+		final Map<String, T> orderedValues = new LinkedHashMap<>();
+		urls.forEach(url -> orderedValues.put(url, values.get(url)));
+		return orderedValues;
+	}
+
+	// the url of the original file of the file description page at url (see WikimediaResources.fullMediaUrl())
+	public String fullMediaUrl(String url) {
+		return fullMediaUrls(asList(url)).get(url);
+	}
+
+	// fullMediaUrl() of every url, values by urls (in the same order): the pages which are not cached are not downloaded
+	// but resolved in batches through the MediaWiki API (these values are kept whatever the ttl, the url of a file only
+	// depends on its name), the other ones, and those the API cannot resolve, are extracted from their documents
+	public Map<String, String> fullMediaUrls(Collection<String> urls) {
+		final Map<String, String> values = new HashMap<>();
+		final Set<String> queriedUrls = new LinkedHashSet<>();
+		for (final String url : urls) {
+			final Object value = extractions.get(url, FULL_MEDIA_EXTRACTOR_NAME, FULL_MEDIA_EXTRACTOR_VERSION);
+			if (value != null) {
+				values.put(url, (String) value);
+			} else if (!idsByUrls.containsKey(url)) {
+				queriedUrls.add(url);
+			}
+		}
+
+		api.fullMediaUrls(queriedUrls).forEach((url, value) -> {
+			extractions.put(url, FULL_MEDIA_EXTRACTOR_NAME, FULL_MEDIA_EXTRACTOR_VERSION, value);
+			values.put(url, value);
+		});
+
+		values.putAll(extractAll(urls.stream().filter(url -> !values.containsKey(url)).collect(toList()),
+		    FULL_MEDIA_EXTRACTOR_NAME, FULL_MEDIA_EXTRACTOR_VERSION, WikimediaResources::fullMediaUrl));
+
+		final Map<String, String> orderedValues = new LinkedHashMap<>();
+		urls.forEach(url -> orderedValues.put(url, values.get(url)));
+		return orderedValues;
+	}
+
+	// loads the given urls concurrently, within the limits of the scheduler, page urls are first resolved to their
+	// canonical urls in batches through the MediaWiki API, so that only canonical pages are downloaded (and those are not
+	// parsed); only this resolution is batched, every missing page is then downloaded by its own request (see
+	// fullMediaUrls() for file description pages, which need not be downloaded)
+	public void prefetch(Collection<String> urls) {
+		final Set<String> missingUrls = urls.stream().filter(url -> !idsByUrls.containsKey(url))
+		    .collect(toCollection(LinkedHashSet::new));
+		final Map<String, String> canonicalUrls = api.canonicalUrls(missingUrls);
+
+		final Set<String> fetchedUrls = new LinkedHashSet<>();
+		missingUrls.forEach(url -> fetchedUrls.add(canonicalUrls.getOrDefault(url, url)));
+		final Set<String> knownCanonicalUrls = new HashSet<>(canonicalUrls.values());
+		scheduler.forEach(fetchedUrls, url -> {
+			if (!idsByUrls.containsKey(url)) {
+				fetch(url, knownCanonicalUrls.contains(url));
+			}
+		});
+
+		canonicalUrls.forEach((url, canonicalUrl) -> {
+			final Long id = idsByUrls.get(canonicalUrl);
+			if (id != null && !idsByUrls.containsKey(url)) {
+				addId(url, id);
+			}
+		});
+	}
+
+	public Map<String, Document> getAll(Collection<String> urls) {
+		prefetch(urls);
+
+		final Map<String, Document> documents = new LinkedHashMap<>();
+		urls.forEach(url -> documents.put(url, get(url)));
+		return documents;
+	}
+
+	// concurrent fetches of the same url (or of urls sharing the same canonical url) wait for the first one, returns the
+	// id of the document
+	private long fetch(String url, boolean canonical) {
+		return singleFlight(inFlightFetches, url, () -> {
+			final Long id = idsByUrls.get(url);
+			return (id != null) ? id : download(url, canonical);
+		});
+	}
+
+	private long revalidate(long id) {
+		return singleFlight(inFlightRevalidations, id, () -> {
+			final CachedDocument cachedDocument = documentsByIds.get(id);
+			return isStale(cachedDocument) ? conditionalDownload(id, cachedDocument) : id;
+		});
+	}
+
+	private <K> long singleFlight(Map<K, CompletableFuture<Long>> inFlightActions, K key, Supplier<Long> action) {
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+		{
+			final CompletableFuture<Long> inFlightAction = inFlightActions.putIfAbsent(key, future);
+			if (inFlightAction != null) {
+				try {
+					return inFlightAction.join();
+				} catch (CompletionException e) {
+					throw new RuntimeException(format("unable to get '%s'", key), e.getCause());
+				}
 			}
 		}
 
-		Response response;
-		Document document;
-		for (int i = 1; true; ++i) {
+		try {
+			final long id = action.get();
+			future.complete(id);
+			return id;
+		} catch (RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlightActions.remove(key, future);
+		}
+	}
+
+	// the body is streamed to a temporary file, it is only parsed to find its canonical url (unless already known to be
+	// url) or its charset (if not in the Content-Type header)
+	private long download(String url, boolean canonical) {
+		final Path bodyPath = createBodyFile();
+		try {
+			final Fetched response = execute(url, emptyMap(), bodyPath);
+			final Document document = (!canonical || response.charsetName == null) ? parse(url, response, bodyPath)
+			    : null;
+			final String canonicalUrl = (document != null) ? document.select("link[rel=canonical]").attr("href") : "";
+			String baseUri = !canonicalUrl.isEmpty() ? canonicalUrl : url;
+			if (!url.equals(baseUri) && !awaitCanonicalUrl(url, baseUri)) {
+				logger.warn("'{}' and its canonical url '{}' are canonical urls of each other, '{}' is stored as is", url,
+				    baseUri, url);
+				baseUri = url;
+			}
+
+			if (url.equals(baseUri)) {
+				final long id = nextId.getAndIncrement();
+				store(id, response, bodyPath, document, baseUri);
+				return id;
+			}
+
+			// the response is stored under its canonical url (unless already cached or being fetched), url is an alias
+			document.setBaseUri(baseUri);
+			final String canonicalBaseUri = baseUri;
 			try {
-				response = Jsoup.connect(url).maxBodySize(0).execute();
-				document = response.parse();
-				break;
-			} catch (SocketTimeoutException e) {
-				if (i >= 3) {
-					throw new RuntimeException(format("unable to access url '%s'", url), e);
-				} else {
-					try {
-						sleep(i * i * 1_000);
-					} catch (InterruptedException e1) {
-						currentThread().interrupt();
-						throw new RuntimeException("interrupted", e1);
+				final long id = singleFlight(inFlightFetches, canonicalBaseUri, () -> {
+					final Long canonicalId = idsByUrls.get(canonicalBaseUri);
+					if (canonicalId != null) {
+						return canonicalId;
 					}
+
+					final long newId = nextId.getAndIncrement();
+					store(newId, response, bodyPath, document, canonicalBaseUri);
+					return newId;
+				});
+				addId(url, id);
+				return id;
+			} finally {
+				synchronized (awaitedCanonicalUrls) {
+					awaitedCanonicalUrls.remove(url);
+				}
+			}
+		} finally {
+			deleteBodyFile(bodyPath);
+		}
+	}
+
+	// the fetch of url is still in flight while it waits for the one of canonicalUrl, it must not if canonicalUrl (or the
+	// url it waits for, and so on) is itself waiting for url: they would wait for each other forever
+	private boolean awaitCanonicalUrl(String url, String canonicalUrl) {
+		synchronized (awaitedCanonicalUrls) {
+			for (String awaitedUrl = canonicalUrl; awaitedUrl != null; awaitedUrl = awaitedCanonicalUrls.get(awaitedUrl)) {
+				if (awaitedUrl.equals(url)) {
+					return false;
 				}
-			} catch (IOException e) {
-				throw new RuntimeException(format("unable to access url '%s'", url), e);
 			}
+			awaitedCanonicalUrls.put(url, canonicalUrl);
+			return true;
+		}
+	}
+
+	// conditional GET of a stale document, the stored body is only replaced (and its extracted values forgotten) if it
+	// has changed
+	private long conditionalDownload(long id, CachedDocument cachedDocument) {
+		final Map<String, String> headers = new LinkedHashMap<>();
+		if (cachedDocument.etag != null) {
+			headers.put("If-None-Match", cachedDocument.etag);
+		}
+		if (cachedDocument.lastModified != null) {
+			headers.put("If-Modified-Since", cachedDocument.lastModified);
 		}
 
-		final String baseUri = document.select("link[rel=canonical]").attr("href"), charsetName = document.charset().name();
+		final Path bodyPath = createBodyFile();
+		try {
+			final Fetched response = execute(cachedDocument.baseUri, headers, bodyPath);
+			if (response.statusCode == HTTP_NOT_MODIFIED
+			    || (response.sha256 != null && response.sha256.equals(cachedDocument.sha256))) {
+				addDocument(id, new CachedDocument(cachedDocument.charsetName, cachedDocument.baseUri,
+				    (response.etag != null) ? response.etag : cachedDocument.etag,
+				    (response.lastModified != null) ? response.lastModified : cachedDocument.lastModified,
+				    cachedDocument.sha256, currentTimeMillis()));
+				return id;
+			}
 
-		if (!url.equals(baseUri)) {
-			final Document result = get(baseUri);
-			addId(url, idsByUrls.get(baseUri));
-			return result;
+			final Document document = (response.charsetName == null)
+			    ? parse(cachedDocument.baseUri, response, bodyPath) : null;
+			store(id, response, bodyPath, document, cachedDocument.baseUri);
+			extractions.invalidate(id);
+			return id;
+		} finally {
+			deleteBodyFile(bodyPath);
 		}
+	}
+
+	// a successful response body is copied to bodyPath while computing its SHA-256
+	private Fetched execute(String url, Map<String, String> headers, Path bodyPath) {
+		try {
+			return engine.get(url, headers, response -> {
+				String sha256 = null;
+				if (response.statusCode() != HTTP_NOT_MODIFIED) {
+					final MessageDigest digest = sha256Digest();
+					copy(new DigestInputStream(response.body(), digest), bodyPath, REPLACE_EXISTING);
+					sha256 = hex(digest.digest());
+				}
+
+				return new Fetched(response.statusCode(), charsetName(response.header("Content-Type")),
+				    response.header("ETag"), response.header("Last-Modified"), sha256);
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(format("unable to access url '%s'", url), e);
+		}
+	}
 
-		final long id = nextId++;
-		try (final OutputStream os = new BufferedOutputStream(newOutputStream(cachedDocumentPath(id)))) {
-			os.write(response.bodyAsBytes());
+	private Document parse(String url, Fetched response, Path bodyPath) {
+		final long start = metrics.parse.start();
+		try (final InputStream is = newInputStream(bodyPath)) {
+			return Jsoup.parse(is, response.charsetName, url);
+		} catch (IOException e) {
+			throw new RuntimeException(format("unable to parse url '%s'", url), e);
+		} finally {
+			metrics.parse.stop(start);
+		}
+	}
+
+	// document is null if the body has not been parsed (it is then parsed on first access)
+	private void store(long id, Fetched response, Path bodyPath, Document document, String baseUri) {
+		try (final InputStream is = newInputStream(bodyPath)) {
+			metrics.bytesWritten.add(store.write(id, is));
 		} catch (IOException e) {
 			throw new RuntimeException(format("unable to write cached document %s", id), e);
 		}
 
-		addDocument(id, new CachedDocument(document, charsetName, baseUri));
-		addId(url, id);
+		synchronized (loadedDocuments) {
+			if (document != null) {
+				loadedDocuments.put(id, new SoftReference<>(document));
+			} else {
+				loadedDocuments.remove(id);
+			}
+		}
+		addDocument(id, new CachedDocument((document != null) ? document.charset().name() : response.charsetName,
+		    baseUri, response.etag, response.lastModified, response.sha256, currentTimeMillis()));
+	}
 
-		return document;
+	private Path createBodyFile() {
+		try {
+			return createTempFile(dir, "body", ".tmp");
+		} catch (IOException e) {
+			throw new RuntimeException(format("unable to create temporary file in '%s'", dir), e);
+		}
+	}
+
+	private static void deleteBodyFile(Path bodyPath) {
+		try {
+			deleteIfExists(bodyPath);
+		} catch (IOException e) {
+			logger.warn(format("Unable to delete '%s'", bodyPath), e);
+		}
+	}
+
+	private boolean isStale(CachedDocument cachedDocument) {
+		return ttl != null && currentTimeMillis() - cachedDocument.fetchedAt > ttl.toMillis();
 	}
 
 	private void readPropertiesFile() {
 		try (final Reader r = newBufferedReader(propertiesPath())) {
-			new JsonReader(r).readMap((idStr, properties) -> {
+			new JsonReader(r).symbols(new SymbolTable()).readMap((idStr, properties) -> {
 				final long id = parseLong(idStr);
 				if (id < 0) {
 					throw new RuntimeException(format("properties file: invalid id %s", id));
 				}
 
-				final CachedDocument document = cachedDocument(id, (Map<?, ?>) properties);
+				final CachedDocument document = new CachedDocument((Map<?, ?>) properties);
 				if (documentsByIds.putIfAbsent(id, document) != null) {
 					throw new RuntimeException(format("properties file: duplicate id %s", id));
 				}
 
-				nextId = max(nextId, id + 1);
+				nextId.accumulateAndGet(id + 1, Long::max);
 
 				if (idsByUrls.putIfAbsent(document.baseUri, id) != null) {
 					throw new RuntimeException(format("properties file: duplicate baseUri '%s'", document.baseUri));
@@ -133,14 +542,21 @@ public class WikimediaCache {
 
 	private void readIdsFile() {
 		try (final Reader r = newBufferedReader(idsPath())) {
-			new JsonReader(r).readMap((url, idObj) -> {
-				final long id = (Long) idObj;
-				if (!documentsByIds.containsKey(id)) {
-					throw new RuntimeException(format("ids file: invalid id %s", id));
+			new JsonReader(r).readMap(new JsonMapListener() {
+				@Override
+				public void newLongEntry(String url, long id) {
+					if (!documentsByIds.containsKey(id)) {
+						throw new RuntimeException(format("ids file: invalid id %s", id));
+					}
+
+					if (idsByUrls.putIfAbsent(url, id) != null) {
+						throw new RuntimeException(format("ids file: duplicate url '%s'", url));
+					}
 				}
 
-				if (idsByUrls.putIfAbsent(url, id) != null) {
-					throw new RuntimeException(format("ids file: duplicate url '%s'", url));
+				@Override
+				public void newEntry(String url, Object idObj) {
+					throw new RuntimeException(format("ids file: invalid id %s", idObj));
 				}
 			});
 		} catch (NoSuchFileException e) {
@@ -150,72 +566,345 @@ public class WikimediaCache {
 		}
 	}
 
+	private void replayJournalFile() {
+		try (final BufferedReader r = newBufferedReader(journalPath(), UTF_8)) {
+			final SymbolTable symbols = new SymbolTable();
+			String line;
+			while ((line = r.readLine()) != null) {
+				final Map<String, Object> entry;
+				try {
+					entry = new JsonReader(new StringReader(line)).symbols(symbols).readMap();
+				} catch (InvalidJsonException e) {
+					if (r.readLine() == null) {
+						logger.warn("Journal file: ignoring truncated last entry", e);
+						journalTruncated = true;
+						break;
+					} else {
+						throw e;
+					}
+				}
+
+				final long id = (Long) entry.get("id");
+				final Object url = entry.get("url");
+				if (url == null) {
+					final CachedDocument document = new CachedDocument(entry);
+					documentsByIds.put(id, document);
+					idsByUrls.put(document.baseUri, id);
+					nextId.accumulateAndGet(id + 1, Long::max);
+				} else if (documentsByIds.containsKey(id)) {
+					idsByUrls.put((String) url, id);
+				} else {
+					throw new RuntimeException(format("journal file: invalid id %s", id));
+				}
+
+				++journalEntries;
+			}
+		} catch (NoSuchFileException e) {
+		} catch (IOException | InvalidJsonException | ClassCastException | NullPointerException e) {
+			throw new RuntimeException("unable to read journal file", e);
+		}
+	}
+
 	private void addId(String url, long id) {
 		idsByUrls.put(url, id);
+		metrics.aliases.increment();
 
-		try (Writer w = newBufferedWriter(idsPath())) {
-			new JsonWriter(w, 0).appendMap(new Iterator<Entry<String, Long>>() {
-				final Iterator<Entry<String, Long>> it = idsByUrls.entrySet().iterator();
-				Entry<String, Long> next;
+		final Map<String, Object> entry = new LinkedHashMap<>();
+		entry.put("url", url);
+		entry.put("id", id);
+		appendToJournal(entry);
+	}
 
-				@Override
-				public boolean hasNext() {
-					while (next == null && it.hasNext()) {
-						final Entry<String, Long> next = it.next();
-						if (!documentsByIds.get(next.getValue()).baseUri.equals(next.getKey())) {
-							this.next = next;
-						}
-					}
+	private void addDocument(long id, CachedDocument document) {
+		documentsByIds.put(id, document);
+		idsByUrls.put(document.baseUri, id);
 
-					return next != null;
+		final Map<String, Object> entry = new LinkedHashMap<>();
+		entry.put("id", id);
+		entry.putAll(document.properties());
+		appendToJournal(entry);
+	}
+
+	private void appendToJournal(Map<String, Object> entry) {
+		final ByteBuffer buffer;
+		try {
+			buffer = new JsonWriter(ByteBuffer.allocate(256)).appendMap(entry).appendLf().buffer();
+		} catch (IOException e) {
+			throw new RuntimeException("unable to serialize journal entry", e);
+		}
+		buffer.flip();
+
+		synchronized (journalLock) {
+			final long start = metrics.indexWrite.start();
+			try {
+				if (journalChannel == null) {
+					journalChannel = FileChannel.open(journalPath(), CREATE, WRITE, APPEND);
 				}
 
-				@Override
-				public Entry<String, Long> next() {
-					hasNext();
-					final Entry<String, Long> next = this.next;
-					this.next = null;
-					return next;
+				metrics.bytesWritten.add(buffer.remaining());
+				while (buffer.hasRemaining()) {
+					journalChannel.write(buffer);
 				}
-			});
-		} catch (IOException e) {
-			throw new RuntimeException("unable to write ids file", e);
+				journalChannel.force(false);
+			} catch (IOException e) {
+				throw new RuntimeException("unable to append to journal file", e);
+			} finally {
+				metrics.indexWrite.stop(start);
+			}
+
+			if (++journalEntries >= MAX_JOURNAL_ENTRIES) {
+				compactLocked();
+			}
 		}
 	}
 
-	private void addDocument(long id, CachedDocument document) {
-		documentsByIds.put(id, document);
+	// rewrites the properties and ids files from the in-memory index, then empties the journal (entries added meanwhile
+	// are appended to the next journal, replaying them on top of the snapshot is harmless)
+	private void compact() {
+		synchronized (journalLock) {
+			compactLocked();
+		}
+	}
 
-		try (Writer w = newBufferedWriter(propertiesPath())) {
-			final Iterator<Entry<Long, CachedDocument>> it = documentsByIds.entrySet().iterator();
+	private void compactLocked() {
+		final long start = metrics.indexWrite.start();
 
-			new JsonWriter(w, 0).appendMap(new Iterator<Entry<Long, Map<String, String>>>() {
-				@Override
-				public boolean hasNext() {
-					return it.hasNext();
-				}
+		// the journal is only deleted once the new index file is durable
+		writeIndexFile();
 
-				@Override
-				public Entry<Long, Map<String, String>> next() {
-					final Entry<Long, CachedDocument> entry = it.next();
-					final Map<String, String> properties = new LinkedHashMap<>();
-					properties.put("charsetName", entry.getValue().charsetName);
-					properties.put("baseUri", entry.getValue().baseUri);
-					return new SimpleEntry<>(entry.getKey(), properties);
+		try {
+			if (journalChannel != null) {
+				journalChannel.close();
+				journalChannel = null;
+			}
+			deleteIfExists(journalPath());
+			deleteIfExists(propertiesPath());
+			deleteIfExists(idsPath());
+		} catch (IOException e) {
+			throw new RuntimeException("unable to delete journal or legacy index files", e);
+		}
+
+		journalEntries = 0;
+		journalTruncated = false;
+
+		metrics.indexWrite.stop(start);
+	}
+
+	// index file: magic, version, documents count, documents (id, fetchedAt, charsetName, baseUri, etag, lastModified,
+	// sha256) sorted by id, aliases count, aliases (id, url) sorted by url, max string length; strings are
+	// length-prefixed UTF-8 (length -1 for null)
+	private void writeIndexFile() {
+		final List<Entry<Long, CachedDocument>> documents = new ArrayList<>(documentsByIds.entrySet());
+		final List<Entry<String, Long>> aliases = idsByUrls.entrySet().stream()
+		    .filter(entry -> !documentsByIds.get(entry.getValue()).baseUri.equals(entry.getKey())).collect(toList());
+
+		writeBytesAtomically(indexPath(), os -> {
+			final DataOutputStream out = new DataOutputStream(os);
+			int maxStringLength = 0;
+
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+
+			out.writeInt(documents.size());
+			for (final Entry<Long, CachedDocument> entry : documents) {
+				final CachedDocument document = entry.getValue();
+				out.writeLong(entry.getKey());
+				out.writeLong(document.fetchedAt);
+				for (final String string : asList(document.charsetName, document.baseUri, document.etag,
+				    document.lastModified, document.sha256)) {
+					maxStringLength = Integer.max(maxStringLength, writeString(out, string));
 				}
-			});
+			}
+
+			out.writeInt(aliases.size());
+			for (final Entry<String, Long> entry : aliases) {
+				out.writeLong(entry.getValue());
+				maxStringLength = Integer.max(maxStringLength, writeString(out, entry.getKey()));
+			}
+
+			out.writeInt(maxStringLength);
+			out.flush();
+		});
+	}
+
+	private static int writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return 0;
+		}
+
+		final byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		return bytes.length;
+	}
+
+	private boolean readIndexFile() {
+		try (final FileChannel channel = FileChannel.open(indexPath(), READ)) {
+			final MappedByteBuffer buffer = channel.map(READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != INDEX_MAGIC || buffer.getInt() != INDEX_VERSION) {
+				throw new RuntimeException("index file: invalid header");
+			}
+			final byte[] scratch = new byte[buffer.getInt(buffer.limit() - 4)];
+
+			for (int i = buffer.getInt(); i > 0; --i) {
+				final long id = buffer.getLong(), fetchedAt = buffer.getLong();
+				final String charsetName = readString(buffer, scratch);
+				final String baseUri = readString(buffer, scratch), etag = readString(buffer, scratch),
+				    lastModified = readString(buffer, scratch), sha256 = readString(buffer, scratch);
+				final CachedDocument document = new CachedDocument((charsetName != null) ? charsetName.intern() : null,
+				    baseUri, etag, lastModified, sha256, fetchedAt);
+				documentsByIds.put(id, document);
+				idsByUrls.put(document.baseUri, id);
+				nextId.accumulateAndGet(id + 1, Long::max);
+			}
+
+			for (int i = buffer.getInt(); i > 0; --i) {
+				final long id = buffer.getLong();
+				idsByUrls.put(readString(buffer, scratch), id);
+			}
+
+			return true;
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | NullPointerException e) {
+			throw new RuntimeException("unable to read index file", e);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, byte[] scratch) {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+
+		buffer.get(scratch, 0, length);
+		return new String(scratch, 0, length, UTF_8);
+	}
+
+	// the file is forced before it replaces path, then its directory is, so that path is durable (with either its
+	// previous or its new content) once this returns
+	static void writeBytesAtomically(Path path, OutputStreamAction action) {
+		final Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			try (final FileChannel channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING);
+			    final OutputStream os = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+				action.accept(os);
+				os.flush();
+				channel.force(false);
+			}
+			move(tmpPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+			forceDirectory(path.toAbsolutePath().getParent());
+		} catch (IOException e) {
+			throw new RuntimeException(format("unable to write '%s'", path), e);
+		}
+	}
+
+	// some platforms (such as Windows) do not allow directories to be opened, renames are then as durable as they can be
+	private static void forceDirectory(Path dir) {
+		try (final FileChannel channel = FileChannel.open(dir, READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.debug(format("Unable to force directory '%s'", dir), e);
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (journalLock) {
+			if (journalEntries > 0 || journalTruncated) {
+				compactLocked();
+			}
+		}
+
+		extractions.close();
+
+		try {
+			store.close();
+		} catch (IOException e) {
+			throw new RuntimeException("unable to close document store", e);
+		} finally {
+			if (ownsEngine) {
+				closeEngine(engine);
+			}
+		}
+	}
+
+	static void closeEngine(HttpEngine engine) {
+		try {
+			engine.close();
 		} catch (IOException e) {
-			throw new RuntimeException("unable to write properties file", e);
+			throw new RuntimeException("unable to close engine", e);
 		}
 	}
 
-	private CachedDocument cachedDocument(long id, Map<?, ?> properties) {
-		final String charsetName = (String) properties.get("charsetName"), baseUri = (String) properties.get("baseUri");
-		try (final InputStream is = new BufferedInputStream(newInputStream(cachedDocumentPath(id)))) {
-			return new CachedDocument(Jsoup.parse(is, charsetName, baseUri), charsetName, baseUri);
+	private static DocumentStore packDocumentStore(Path dir) {
+		try {
+			return new PackDocumentStore(dir);
+		} catch (IOException e) {
+			throw new RuntimeException(format("unable to open pack files in '%s'", dir), e);
+		}
+	}
+
+	private Document loadedDocument(long id) {
+		{
+			final SoftReference<Document> ref;
+			synchronized (loadedDocuments) {
+				ref = loadedDocuments.get(id);
+			}
+			final Document document = (ref != null) ? ref.get() : null;
+			if (document != null) {
+				return document;
+			}
+		}
+
+		final CachedDocument cachedDocument = documentsByIds.get(id);
+		final Document document;
+		final long start = metrics.parse.start();
+		try (final InputStream is = store.read(id)) {
+			document = Jsoup.parse(is, cachedDocument.charsetName, cachedDocument.baseUri);
 		} catch (IOException e) {
 			throw new RuntimeException(format("unable to read cached document %s", id), e);
+		} finally {
+			metrics.parse.stop(start);
+		}
+
+		synchronized (loadedDocuments) {
+			loadedDocuments.put(id, new SoftReference<>(document));
 		}
+		return document;
+	}
+
+	// charset of a Content-Type header, null (detected by the parser) if missing or unsupported
+	private static String charsetName(String contentType) {
+		final Matcher m = (contentType != null) ? CHARSET_PATTERN.matcher(contentType) : null;
+		if (m != null && m.find()) {
+			try {
+				return Charset.isSupported(m.group(1)) ? m.group(1) : null;
+			} catch (IllegalCharsetNameException e) {
+			}
+		}
+		return null;
+	}
+
+	static MessageDigest sha256Digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static String hex(byte[] bytes) {
+		final StringBuilder sb = new StringBuilder(2 * bytes.length);
+		for (final byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	private Path indexPath() {
+		return dir.resolve(INDEX_FILE_NAME);
 	}
 
 	private Path propertiesPath() {
@@ -226,18 +915,63 @@ public class WikimediaCache {
 		return dir.resolve(IDS_FILE_NAME);
 	}
 
-	private Path cachedDocumentPath(long id) {
-		return dir.resolve(format("cache_%07d.html", id));
+	private Path journalPath() {
+		return dir.resolve(JOURNAL_FILE_NAME);
 	}
 
-	private static class CachedDocument {
-		final Document document;
-		final String charsetName, baseUri;
+	// sha256 (of the body) is null for a not modified response
+	private static class Fetched {
+		final int statusCode;
+		final String charsetName, etag, lastModified, sha256;
 
-		CachedDocument(Document document, String charsetName, String baseUri) {
-			this.document = document;
+		Fetched(int statusCode, String charsetName, String etag, String lastModified, String sha256) {
+			this.statusCode = statusCode;
 			this.charsetName = charsetName;
-			this.baseUri = baseUri;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.sha256 = sha256;
+		}
+	}
+
+	private static class CachedDocument {
+		final String charsetName, baseUri, etag, lastModified, sha256;
+		final long fetchedAt;
+
+		CachedDocument(String charsetName, String baseUri, String etag, String lastModified, String sha256,
+		    long fetchedAt) {
+			this.charsetName = requireNonNull(charsetName, "charsetName");
+			this.baseUri = requireNonNull(baseUri, "baseUri");
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.sha256 = sha256;
+			this.fetchedAt = fetchedAt;
+		}
+
+		CachedDocument(Map<?, ?> properties) {
+			this((String) properties.get("charsetName"), (String) properties.get("baseUri"),
+			    (String) properties.get("etag"), (String) properties.get("lastModified"), (String) properties.get("sha256"),
+			    properties.containsKey("fetchedAt") ? (Long) properties.get("fetchedAt") : 0);
 		}
+
+		Map<String, Object> properties() {
+			final Map<String, Object> properties = new LinkedHashMap<>();
+			properties.put("charsetName", charsetName);
+			properties.put("baseUri", baseUri);
+			if (etag != null) {
+				properties.put("etag", etag);
+			}
+			if (lastModified != null) {
+				properties.put("lastModified", lastModified);
+			}
+			if (sha256 != null) {
+				properties.put("sha256", sha256);
+			}
+			properties.put("fetchedAt", fetchedAt);
+			return properties;
+		}
+	}
+
+	static interface OutputStreamAction {
+		void accept(OutputStream os) throws IOException;
 	}
 }
@@ -0,0 +1,211 @@
+package fr.eimonku.wikimedia;
+
+import static java.lang.Long.numberOfLeadingZeros;
+import static java.lang.Math.ceil;
+import static java.lang.String.format;
+import static java.lang.System.nanoTime;
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// counters and latency histograms of WikimediaCache and WikimediaResources, which may share an instance
+public class WikimediaMetrics implements WikimediaMetricsMBean {
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	final LongAdder hits = new LongAdder(), misses = new LongAdder(), revalidations = new LongAdder(),
+	    aliases = new LongAdder(), retries = new LongAdder(), bytesDownloaded = new LongAdder(),
+	    bytesWritten = new LongAdder();
+	final Histogram fetch = new Histogram(), parse = new Histogram(), indexWrite = new Histogram();
+	private ObjectName name;
+
+	public synchronized void register() {
+		if (name == null) {
+			try {
+				name = new ObjectName(
+				    format("fr.eimonku.wikimedia:type=WikimediaMetrics,instance=%s", instances.incrementAndGet()));
+				getPlatformMBeanServer().registerMBean(this, name);
+			} catch (JMException e) {
+				name = null;
+				throw new RuntimeException("unable to register metrics MBean", e);
+			}
+		}
+	}
+
+	public synchronized void unregister() {
+		if (name != null) {
+			try {
+				getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				throw new RuntimeException("unable to unregister metrics MBean", e);
+			} finally {
+				name = null;
+			}
+		}
+	}
+
+	public String summary() {
+		return format(
+		    "%s hits, %s misses, %s revalidations, %s aliases, %s retries, %s bytes downloaded, %s bytes written"
+		        + ", fetch %s, parse %s, index write %s",
+		    getHits(), getMisses(), getRevalidations(), getAliases(), getRetries(), getBytesDownloaded(),
+		    getBytesWritten(), fetch, parse, indexWrite);
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getRevalidations() {
+		return revalidations.sum();
+	}
+
+	@Override
+	public long getAliases() {
+		return aliases.sum();
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return bytesDownloaded.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getFetchCount() {
+		return fetch.count();
+	}
+
+	@Override
+	public double getFetchMillisMean() {
+		return fetch.meanMillis();
+	}
+
+	@Override
+	public double getFetchMillisP99() {
+		return fetch.percentileMillis(0.99);
+	}
+
+	@Override
+	public double getFetchMillisMax() {
+		return fetch.maxMillis();
+	}
+
+	@Override
+	public long getParseCount() {
+		return parse.count();
+	}
+
+	@Override
+	public double getParseMillisMean() {
+		return parse.meanMillis();
+	}
+
+	@Override
+	public double getParseMillisP99() {
+		return parse.percentileMillis(0.99);
+	}
+
+	@Override
+	public double getParseMillisMax() {
+		return parse.maxMillis();
+	}
+
+	@Override
+	public long getIndexWriteCount() {
+		return indexWrite.count();
+	}
+
+	@Override
+	public double getIndexWriteMillisMean() {
+		return indexWrite.meanMillis();
+	}
+
+	@Override
+	public double getIndexWriteMillisP99() {
+		return indexWrite.percentileMillis(0.99);
+	}
+
+	@Override
+	public double getIndexWriteMillisMax() {
+		return indexWrite.maxMillis();
+	}
+
+	// durations in nanoseconds, bucket i holds the durations d such that 2^(i-1) <= d < 2^i
+	static class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final LongAdder sum = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		long start() {
+			return nanoTime();
+		}
+
+		void stop(long start) {
+			record(nanoTime() - start);
+		}
+
+		void record(long nanos) {
+			final long d = Long.max(0, nanos);
+			buckets.incrementAndGet(Integer.min(63, 64 - numberOfLeadingZeros(d)));
+			sum.add(d);
+			max.accumulateAndGet(d, Long::max);
+		}
+
+		long count() {
+			long count = 0;
+			for (int i = 0; i < buckets.length(); ++i) {
+				count += buckets.get(i);
+			}
+			return count;
+		}
+
+		double meanMillis() {
+			final long count = count();
+			return (count > 0) ? sum.sum() / 1e6 / count : 0;
+		}
+
+		double maxMillis() {
+			return max.get() / 1e6;
+		}
+
+		double percentileMillis(double percentile) {
+			final long count = count();
+			long remaining = (long) ceil(count * percentile);
+			for (int i = 0; i < buckets.length() - 1; ++i) {
+				remaining -= buckets.get(i);
+				if (remaining <= 0 && count > 0) {
+					return Double.min(maxMillis(), (1L << i) / 1e6);
+				}
+			}
+			return maxMillis();
+		}
+
+		@Override
+		public String toString() {
+			return format("%s in %.1f ms mean, %.1f ms p99, %.1f ms max", count(), meanMillis(), percentileMillis(0.99),
+			    maxMillis());
+		}
+	}
+}
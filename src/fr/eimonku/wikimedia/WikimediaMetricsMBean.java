@@ -0,0 +1,42 @@
+package fr.eimonku.wikimedia;
+
+// durations are in milliseconds, percentiles are upper bounds (power-of-two histogram buckets)
+public interface WikimediaMetricsMBean {
+	long getHits();
+
+	long getMisses();
+
+	long getRevalidations();
+
+	long getAliases();
+
+	long getRetries();
+
+	long getBytesDownloaded();
+
+	long getBytesWritten();
+
+	long getFetchCount();
+
+	double getFetchMillisMean();
+
+	double getFetchMillisP99();
+
+	double getFetchMillisMax();
+
+	long getParseCount();
+
+	double getParseMillisMean();
+
+	double getParseMillisP99();
+
+	double getParseMillisMax();
+
+	long getIndexWriteCount();
+
+	double getIndexWriteMillisMean();
+
+	double getIndexWriteMillisP99();
+
+	double getIndexWriteMillisMax();
+}
@@ -1,63 +1,294 @@
 package fr.eimonku.wikimedia;
 
+import static fr.eimonku.wikimedia.WikimediaCache.closeEngine;
 import static java.lang.String.format;
-import static java.lang.Thread.currentThread;
-import static java.lang.Thread.sleep;
-import static java.nio.file.Files.copy;
+import static java.lang.String.join;
+import static java.lang.System.currentTimeMillis;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.deleteIfExists;
 import static java.nio.file.Files.isReadable;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.Files.size;
+import static java.nio.file.Files.write;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.apache.logging.log4j.LogManager.getLogger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.OutputStream;
 import java.nio.file.Path;
-import java.util.zip.GZIPInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.logging.log4j.Logger;
+import org.jsoup.HttpStatusException;
 import org.jsoup.nodes.Document;
 
-public class WikimediaResources {
+import fr.eimonku.wikimedia.HttpEngine.Response;
+import fr.eimonku.wikimedia.MediaStore.Media;
+
+// media files are downloaded asynchronously (by the engine, with its retries) to a MediaStore (once per url, or again
+// once older than maxAge if they have changed) then published to the media directory, close() waits for every download
+// and reports the failed ones; interrupted downloads are resumed (with range requests), even by a later run
+public class WikimediaResources implements Closeable {
+	private static final Logger logger = getLogger();
+
 	private final Path dir;
+	private final MediaStore store;
+	private final HttpEngine engine;
+	private final boolean ownsEngine;
+	private volatile SvgOptimizer svgOptimizer;
+	private volatile Duration maxAge;
+	private final Map<String, Download> downloadsByFileNames = new ConcurrentHashMap<>();
+	private final Map<String, CompletableFuture<Media>> mediaByUrls = new ConcurrentHashMap<>();
 
 	public WikimediaResources(Path dir) {
+		this(dir, new WikimediaMetrics());
+	}
+
+	// the engine created for these resources is closed with them
+	public WikimediaResources(Path dir, WikimediaMetrics metrics) {
+		this(dir, dir.resolve(".store"), new HttpClientEngine(new FetchScheduler(), metrics), true, metrics);
+	}
+
+	// storeDir may be shared by several media directories, engine may be shared (with WikimediaCache), it is not closed
+	// by these resources
+	public WikimediaResources(Path dir, Path storeDir, HttpEngine engine, WikimediaMetrics metrics) {
+		this(dir, storeDir, engine, false, metrics);
+	}
+
+	private WikimediaResources(Path dir, Path storeDir, HttpEngine engine, boolean ownsEngine,
+	    WikimediaMetrics metrics) {
 		this.dir = requireNonNull(dir, "dir");
+		store = new MediaStore(storeDir, metrics);
+		this.engine = requireNonNull(engine, "engine");
+		this.ownsEngine = ownsEngine;
+	}
+
+	// downloaded SVG files are optimised (before being stored) if optimizer is not null
+	public WikimediaResources svgOptimizer(SvgOptimizer optimizer) {
+		svgOptimizer = optimizer;
+		return this;
+	}
+
+	// stored files older than maxAge (if not null) are revalidated with a conditional GET
+	public WikimediaResources maxAge(Duration maxAge) {
+		this.maxAge = maxAge;
+		return this;
+	}
+
+	public static String fullMediaUrl(Document wikimediaDocument) {
+		return wikimediaDocument.select("div.fullMedia a").first().absUrl("href");
+	}
+
+	public String createSvgFile(Document wikimediaDocument, String fileName) {
+		return createSvgFile(fullMediaUrl(wikimediaDocument), fileName);
+	}
+
+	// returns fileName immediately, the file is downloaded in the background (unless it has already been published
+	// from the manifest of the store, and is not stale)
+	public String createSvgFile(String url, String fileName) {
+		final Path mediaPath = dir.resolve(fileName);
+		final Media media = store.media(url);
+		if (media == null || isStale(media) || !store.isPublished(media, mediaPath)) {
+			downloadsByFileNames.computeIfAbsent(fileName,
+			    k -> new Download(url, download(url).thenAccept(m -> publish(m, mediaPath))));
+		}
+		return fileName;
 	}
 
-	public void createSvgFile(Document wikimediaDocument, String fileName) {
-		final String urlStr = wikimediaDocument.select("div.fullMedia a").first().absUrl("href");
-		final URL url;
+	// waits for every pending download, failures are logged together then rethrown (the first one, with the others
+	// suppressed)
+	@Override
+	public void close() {
+		final List<String> failures = new ArrayList<>();
+		RuntimeException exception = null;
+		for (final Entry<String, Download> entry : downloadsByFileNames.entrySet()) {
+			try {
+				entry.getValue().future.join();
+			} catch (CompletionException e) {
+				failures.add(format("'%s' from '%s': %s", entry.getKey(), entry.getValue().url, e.getCause()));
+
+				final RuntimeException e1 = new RuntimeException(
+				    format("unable to copy '%s' to '%s'", entry.getValue().url, dir.resolve(entry.getKey())), e.getCause());
+				if (exception == null) {
+					exception = e1;
+				} else {
+					exception.addSuppressed(e1);
+				}
+			} finally {
+				downloadsByFileNames.remove(entry.getKey(), entry.getValue());
+			}
+		}
+
 		try {
-			url = new URL(urlStr);
-		} catch (MalformedURLException e) {
-			throw new RuntimeException(format("invalid URL '%s'", urlStr), e);
+			store.close();
+		} finally {
+			if (ownsEngine) {
+				closeEngine(engine);
+			}
 		}
 
-		final Path mediaPath = dir.resolve(fileName);
-		if (!isReadable(mediaPath)) {
-			for (int i = 1; true; ++i) {
-				try {
-					final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-					connection.setRequestProperty("Accept-Encoding", "gzip");
-
-					try (final InputStream in = "gzip".equals(connection.getContentEncoding())
-					    ? new GZIPInputStream(connection.getInputStream()) : connection.getInputStream()) {
-						copy(in, mediaPath);
-						break;
-					}
-				} catch (IOException e) {
-					if (i >= 3) {
-						throw new RuntimeException(format("unable to copy '%s' to '%s'", url, mediaPath), e);
-					} else {
-						try {
-							sleep(i * i * 1_000);
-						} catch (InterruptedException e1) {
-							currentThread().interrupt();
-							throw new RuntimeException("interrupted", e1);
-						}
-					}
+		if (exception != null) {
+			logger.error("{} media downloads failed:\n  {}", failures.size(), join("\n  ", failures));
+			throw exception;
+		}
+	}
+
+	// the stored file of url, downloaded (or revalidated) at most once, unless the download fails (it is then forgotten,
+	// so that a later request for url downloads it again)
+	private CompletableFuture<Media> download(String url) {
+		final CompletableFuture<Media> future = mediaByUrls.computeIfAbsent(url, k -> {
+			final Media media = store.media(url);
+			if (media != null && !isStale(media)) {
+				return completedFuture(media);
+			}
+
+			final Path partPath = store.partPath(url);
+			return engine.getAsync(url, () -> requestHeaders(media, partPath), response -> {
+				if (response.statusCode() == HTTP_NOT_MODIFIED) {
+					return store.revalidated(url, media, response.header("ETag"));
 				}
+				return store(url, response, partPath);
+			}).whenComplete((m, e) -> {
+				if (e != null && e.getCause() instanceof HttpStatusException) {
+					deletePart(partPath);
+				}
+			});
+		});
+		future.whenComplete((m, e) -> {
+			if (e != null) {
+				mediaByUrls.remove(url, future);
 			}
+		});
+		return future;
+	}
+
+	private static Map<String, String> requestHeaders(Media media, Path partPath) {
+		final Map<String, String> headers = new LinkedHashMap<>();
+		// the body is not compressed, so that the range following a partial download can be appended to it
+		headers.put("Accept-Encoding", "identity");
+		if (media != null && media.etag != null) {
+			headers.put("If-None-Match", media.etag);
+		}
+
+		try {
+			final long partSize = isReadable(partPath) ? size(partPath) : 0;
+			final Path partEtagPath = partEtagPath(partPath);
+			if (partSize > 0 && isReadable(partEtagPath)) {
+				headers.put("Range", format("bytes=%s-", partSize));
+				headers.put("If-Range", new String(readAllBytes(partEtagPath), UTF_8));
+			}
+		} catch (IOException e) {
+			logger.warn(format("Unable to resume the download to '%s'", partPath), e);
+		}
+		return headers;
+	}
+
+	// the body is appended to the partial download (if resumed), then stored (optimised if it is an SVG the optimizer
+	// can handle); the partial download is kept if the transfer fails (so that it can be resumed), not once complete
+	// (resuming it would then request an unsatisfiable range)
+	private Media store(String url, Response response, Path partPath) throws IOException {
+		final boolean resumed = response.statusCode() == HTTP_PARTIAL;
+		if (!resumed) {
+			if (response.header("ETag") != null) {
+				write(partEtagPath(partPath), response.header("ETag").getBytes(UTF_8));
+			} else {
+				deleteIfExists(partEtagPath(partPath));
+			}
+		}
+		try (final OutputStream os = resumed ? newOutputStream(partPath, CREATE, APPEND) : newOutputStream(partPath)) {
+			copy(response.body(), os);
+		}
+
+		try {
+			return storePart(url, response.header("ETag"), partPath);
+		} finally {
+			deletePart(partPath);
+		}
+	}
+
+	private Media storePart(String url, String etag, Path partPath) throws IOException {
+		final SvgOptimizer optimizer = svgOptimizer;
+		Media media = null;
+		if (optimizer != null) {
+			try {
+				media = store.put(url, etag, os -> {
+					try (final InputStream in = newInputStream(partPath)) {
+						optimizer.optimize(url, in, os);
+					}
+				});
+			} catch (RuntimeException e) {
+				// files the optimizer cannot handle (such as DTD or entity heavy ones) are stored as downloaded
+				logger.warn(format("Unable to optimize '%s', storing it as downloaded", url), e);
+			}
+		}
+		if (media == null) {
+			media = store.put(url, etag, os -> {
+				try (final InputStream in = newInputStream(partPath)) {
+					copy(in, os);
+				}
+			});
+		}
+		return media;
+	}
+
+	private void publish(Media media, Path mediaPath) {
+		try {
+			store.publish(media, mediaPath);
+		} catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	private boolean isStale(Media media) {
+		final Duration maxAge = this.maxAge;
+		return maxAge != null && currentTimeMillis() - media.fetchedAt > maxAge.toMillis();
+	}
+
+	private static Path partEtagPath(Path partPath) {
+		return partPath.resolveSibling(partPath.getFileName() + ".etag");
+	}
+
+	private static void deletePart(Path partPath) {
+		try {
+			deleteIfExists(partPath);
+			deleteIfExists(partEtagPath(partPath));
+		} catch (IOException e) {
+			logger.warn(format("Unable to delete '%s'", partPath), e);
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream os) throws IOException {
+		final byte[] buffer = new byte[8_192];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			os.write(buffer, 0, n);
+		}
+	}
+
+	private static class Download {
+		final String url;
+		final CompletableFuture<Void> future;
+
+		Download(String url, CompletableFuture<Void> future) {
+			this.url = url;
+			this.future = future;
 		}
 	}
 }
@@ -0,0 +1,97 @@
+package fr.eimonku.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.write;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.MalformedInputException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+
+public class JsonLinesReaderTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	public void linesAreReadInOrderWhateverTheChunkSize() throws IOException, InvalidJsonException {
+		final Path path = dir.resolve("lines.json");
+		final List<Object> expected = new ArrayList<>();
+		try (final JsonLinesWriter w = new JsonLinesWriter(new BufferedOutputStream(newOutputStream(path)))) {
+			for (int i = 0; i < 5_000; ++i) {
+				final Map<String, Object> map = new LinkedHashMap<>();
+				map.put("id", (long) i);
+				map.put("s", "é€😀" + i);
+				map.put("l", asList(1L, "x", null, true));
+				expected.add(map);
+				w.append(map);
+			}
+		}
+
+		for (final int chunkSize : new int[] { 1, 7, 4_096, 1 << 20 }) {
+			assertEquals(expected, new JsonLinesReader(path).chunkSize(chunkSize).pool(new ForkJoinPool(4))
+			    .symbols(new SymbolTable()).readList());
+		}
+	}
+
+	@Test
+	public void emptyLinesAreSkipped() throws IOException, InvalidJsonException {
+		final Path path = write(dir.resolve("lines.json"), "{\"a\":1}\r\n\r\n[2]\r\n3".getBytes(UTF_8));
+
+		assertEquals(asList(singletonMap("a", 1L), asList(2L), 3L), new JsonLinesReader(path).chunkSize(2).readList());
+	}
+
+	@Test
+	public void valuesFollowedByAnythingButWhitespaceAreInvalid() throws IOException {
+		final Path path = write(dir.resolve("lines.json"), "{\"a\":1}  \n{\"trail\":1} garbage\n2\n".getBytes(UTF_8));
+
+		final List<Object> values = new ArrayList<>();
+		final InvalidJsonException e = assertThrows(InvalidJsonException.class,
+		    () -> new JsonLinesReader(path).read(values::add));
+		assertEquals(asList(singletonMap("a", 1L)), values);
+		assertTrue(e.getMessage().startsWith("line 2 of "), e.getMessage());
+	}
+
+	@Test
+	public void invalidUtf8IsAnInvalidLine() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write("1\n\"é\"\n".getBytes(UTF_8));
+		// a line torn in the middle of a multi-byte character
+		bytes.write(new byte[] { '"', (byte) 0xe2, (byte) 0x82 });
+		final Path path = write(dir.resolve("lines.json"), bytes.toByteArray());
+
+		final List<Object> values = new ArrayList<>();
+		final InvalidJsonException e = assertThrows(InvalidJsonException.class,
+		    () -> new JsonLinesReader(path).read(values::add));
+		assertEquals(asList(1L, "é"), values);
+		assertTrue(e.getMessage().startsWith("line 3 of "), e.getMessage());
+		assertTrue(e.getCause().getCause() instanceof MalformedInputException);
+	}
+
+	@Test
+	public void readMapsRejectsOtherValues() throws IOException {
+		final Path path = write(dir.resolve("lines.json"), "{\"a\":1}\n[2]\n{\"b\":3}\n".getBytes(UTF_8));
+
+		final List<Map<String, Object>> maps = new ArrayList<>();
+		final InvalidJsonException e = assertThrows(InvalidJsonException.class,
+		    () -> new JsonLinesReader(path).readMaps(maps::add));
+		assertEquals(asList(singletonMap("a", 1L)), maps);
+		assertTrue(e.getMessage().startsWith("line 2 of "), e.getMessage());
+	}
+}
@@ -0,0 +1,180 @@
+package fr.eimonku.json;
+
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonReader.Token;
+
+public class JsonReaderTest {
+	@Test
+	public void readsValues() throws IOException, InvalidJsonException {
+		final Map<String, Object> expected = new LinkedHashMap<>();
+		expected.put("s", "a\"\u00e9\n");
+		expected.put("l", asList(1L, -2.5, true, null));
+		assertEquals(expected, read("{\"s\": \"a\\\"\\u00e9\\n\", \"l\": [1, -2.5, true, null]}"));
+	}
+
+	@Test
+	public void integersOutsideLongsAreDoubles() throws IOException, InvalidJsonException {
+		assertEquals(Long.MAX_VALUE, read("9223372036854775807"));
+		assertEquals(Long.MIN_VALUE, read("-9223372036854775808"));
+		assertEquals(0x1p63, read("9223372036854775808"));
+		assertEquals(-0x1p63, read("-9223372036854775809"));
+		assertEquals(Long.MIN_VALUE, read("-9223372036854775808.0"));
+		assertEquals(0x1p63, read("9223372036854775808.0"));
+	}
+
+	@Test
+	public void integralDecimalsAreLongs() throws IOException, InvalidJsonException {
+		assertEquals(0L, read("-0"));
+		assertEquals(0L, read("-0.0"));
+		assertEquals(100L, read("1E2"));
+		assertEquals(1_000_000_000_000_000_000L, read("1e18"));
+		assertEquals(-0.0025, read("-2.5e-3"));
+		assertEquals(0.1, read("0.1"));
+	}
+
+	@Test
+	public void exponentsBeyondDoublesOverflowAndUnderflow() throws IOException, InvalidJsonException {
+		assertEquals(Double.POSITIVE_INFINITY, read("1e400"));
+		assertEquals(Double.NEGATIVE_INFINITY, read("-1e400"));
+		assertEquals(0L, read("1e-400"));
+		assertEquals(1e22, read("1e22"));
+		assertEquals(1e23, read("1e23"));
+	}
+
+	@Test
+	public void numbersWithMoreThan19DigitsAreRoundedOnce() throws IOException, InvalidJsonException {
+		assertEquals(1.2345678901234568e22, read("12345678901234567890123"));
+		assertEquals(-1.2345678901234568e22, read("-12345678901234567890123"));
+		assertEquals(0.12345678901234568, read("0.12345678901234567890123"));
+		assertEquals(Math.PI, read("3.14159265358979323846264338"));
+		assertEquals(1L, read("1.000000000000000000000001"));
+	}
+
+	@Test
+	public void numbersMustHaveTheJsonSyntax() {
+		for (final String json : asList(".5", "1.", "01", "-01", "1e", "1e+", "-", "+1", "Infinity", "-Infinity", "NaN",
+		    "0x1", "1f", "1.5d")) {
+			assertEquals("invalid number at line 1, col " + json.length(), error(json), json);
+		}
+		assertEquals("invalid number at line 1, col 6", error("[1, .5]"));
+	}
+
+	@Test
+	public void errorsAreLocatedByLineAndColumn() {
+		assertEquals("invalid number at line 2, col 3", error("[1,\r\n  x]"));
+		assertEquals("invalid number at line 4, col 1", error("[1,\r\r\n\nx]"));
+		assertEquals("unexpected end of input at line 1, col 4", error("[1,"));
+		assertEquals("invalid escape sequence character \\u0071 at line 1, col 3", error("\"\\q\""));
+	}
+
+	@Test
+	public void errorsAreLocatedAcrossBlocks() {
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 10_000; ++i) {
+			sb.append("1,\n");
+		}
+		sb.append('x');
+		assertEquals("invalid number at line 10001, col 1", error(sb.toString()));
+	}
+
+	@Test
+	public void lineBreaksSplitAcrossBlocksAreCountedOnce() {
+		// the first block (of 256 characters) ends with the CR of a CR LF
+		final StringBuilder sb = new StringBuilder("[");
+		while (sb.length() < 255) {
+			sb.append(' ');
+		}
+		sb.append("\r\n x");
+		assertEquals("invalid number at line 2, col 2", error(sb.toString()));
+	}
+
+	@Test
+	public void tokensAndNamesOfNestedValues() throws IOException, InvalidJsonException {
+		assertEquals(asList("START_MAP", "START_LIST a", "NUMBER", "START_MAP", "NULL b", "END_MAP", "END_LIST a",
+		    "START_MAP c", "START_LIST d", "BOOLEAN", "STRING", "END_LIST d", "END_MAP c", "START_LIST e", "END_LIST e",
+		    "END_MAP"), tokens("{\"a\": [1, {\"b\": null}], \"c\": {\"d\": [true, \"s\"]}, \"e\": []}"));
+		assertEquals(asList("START_LIST", "START_LIST", "START_LIST", "END_LIST", "END_LIST", "END_LIST"),
+		    tokens("[[[]]]"));
+		assertEquals(asList("STRING"), tokens("\"s\""));
+	}
+
+	@Test
+	public void skippedValues() throws IOException, InvalidJsonException {
+		final JsonReader r = new JsonReader(
+		    new StringReader("{\"skipped\": {\"x\": [1, {\"y\": \"z\"}]}, \"scalar\": \"s\", \"kept\": [2]}"));
+		assertEquals(Token.START_MAP, r.nextToken());
+
+		assertEquals(Token.START_MAP, r.nextToken());
+		r.skipValue();
+		assertEquals(Token.END_MAP, r.currentToken());
+		assertEquals("skipped", r.currentName());
+
+		assertEquals(Token.STRING, r.nextToken());
+		r.skipValue();
+		assertEquals(Token.STRING, r.currentToken());
+		assertEquals("scalar", r.currentName());
+
+		assertEquals(Token.START_LIST, r.nextToken());
+		assertEquals("kept", r.currentName());
+		assertEquals(asList(2L), r.readCurrentValue());
+		assertEquals(Token.END_MAP, r.nextToken());
+		assertNull(r.currentName());
+		assertNull(r.nextToken());
+	}
+
+	@Test
+	public void pullErrors() {
+		assertEquals("unexpected character \\u005d at line 1, col 4", pullError("[1,]", false));
+		assertEquals("expected '\"', got \\u007d at line 1, col 8", pullError("{\"a\":1,}", false));
+		assertEquals("expected ':', got \\u0031 at line 1, col 6", pullError("{\"a\" 1}", false));
+		assertEquals("unexpected end of input at line 1, col 8", pullError("{\"a\":[1", false));
+		assertEquals("unexpected end of input at line 1, col 8", pullError("{\"a\":\"b", false));
+		assertEquals("expected '\"', got \\u007d at line 1, col 13", pullError("{\"a\":{\"b\":1,}}", true));
+		assertEquals("unexpected end of input at line 1, col 9", pullError("[{\"a\":\"b", true));
+	}
+
+	private static Object read(String json) throws IOException, InvalidJsonException {
+		return new JsonReader(new StringReader(json)).readObject();
+	}
+
+	private static String error(String json) {
+		return assertThrows(InvalidJsonException.class, () -> read(json)).getMessage();
+	}
+
+	// tokens, followed by their names (if any)
+	private static List<String> tokens(String json) throws IOException, InvalidJsonException {
+		final JsonReader r = new JsonReader(new StringReader(json));
+		final List<String> tokens = new ArrayList<>();
+		while (r.nextToken() != null) {
+			tokens.add((r.currentName() != null) ? r.currentToken() + " " + r.currentName() : r.currentToken().name());
+		}
+		return tokens;
+	}
+
+	// the first value is skipped if skip is true, its tokens are read otherwise
+	private static String pullError(String json, boolean skip) {
+		return assertThrows(InvalidJsonException.class, () -> {
+			final JsonReader r = new JsonReader(new StringReader(json));
+			if (skip) {
+				r.nextToken();
+				r.skipValue();
+			}
+			while (r.nextToken() != null) {
+			}
+		}).getMessage();
+	}
+}
@@ -0,0 +1,156 @@
+package fr.eimonku.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Arrays.copyOfRange;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+// the UTF-8 written to an OutputStream or a ByteBuffer is compared with the text written to a Writer, encoded by
+// String.getBytes and by an OutputStreamWriter
+public class JsonWriterTest {
+	private static final String MIXED = "aé€😀\"\\\n\u0001 ";
+
+	@Test
+	public void charactersOfEveryLengthAreEncoded() throws IOException {
+		for (final String string : asList("", "a", "é", "€", "😀", MIXED, "￿", "߿ࠀ", "􏿿")) {
+			assertEncoded(string);
+		}
+	}
+
+	@Test
+	public void unpairedSurrogatesAreReplaced() throws IOException {
+		for (final String string : asList("\ud800", "\udc00", "x\ud83dy", "x\ude00y", "\ude00\ud83d", "😀\ud83d",
+		    "\ud83d😀")) {
+			assertEncoded(string);
+		}
+		assertEquals("\"x?y\"", new String(streamed("x\ud83dy", 8, -1), UTF_8));
+	}
+
+	@Test
+	public void charactersAcrossBufferBoundariesAreEncodedWhole() throws IOException {
+		for (int prefixLength = 0; prefixLength < 16; ++prefixLength) {
+			final String string = "a".repeat(prefixLength) + "😀é€\ud800😀z";
+			final byte[] expected = json(string, -1).getBytes(UTF_8);
+			for (int bufferSize = 4; bufferSize < 16; ++bufferSize) {
+				assertArrayEquals(expected, streamed(string, bufferSize, -1), string + " / " + bufferSize);
+			}
+			assertArrayEquals(expected, buffered(string, ByteBuffer.allocate(0)), string);
+		}
+	}
+
+	@Test
+	public void stringsLongerThanTheBufferAreEncoded() throws IOException {
+		final String string = MIXED.repeat(5_000);
+		final byte[] expected = json(string, -1).getBytes(UTF_8);
+
+		assertArrayEquals(expected, streamed(string, 8_192, -1));
+		assertArrayEquals(expected, streamed(string, 5, -1));
+		assertArrayEquals(expected, buffered(string, ByteBuffer.allocate(16)));
+		assertArrayEquals(expected, writtenThroughOutputStreamWriter(string));
+	}
+
+	@Test
+	public void valuesAreEncodedAsTheyAreWritten() throws IOException {
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("s", MIXED);
+		map.put("😀", asList(1L, -2.5, true, null, new LinkedHashMap<>(), new ArrayList<>()));
+		map.put("nested", asList(asList(asList("é")), new LinkedHashMap<>(map)));
+		map.put("numbers", asList(Long.MAX_VALUE, Long.MIN_VALUE, 0x1p63, 1e-7));
+
+		for (final int indentLevel : new int[] { -1, 0, 2, 40 }) {
+			final byte[] expected = json(map, indentLevel).getBytes(UTF_8);
+			assertArrayEquals(expected, streamed(map, 4, indentLevel));
+			assertArrayEquals(expected, streamed(map, 8_192, indentLevel));
+		}
+	}
+
+	@Test
+	public void bytesAreAppendedFromThePositionOfTheBuffer() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(new byte[8]).position(3).slice().put((byte) '>');
+
+		final ByteBuffer bytes = new JsonWriter(buffer).appendString(MIXED).appendLf().buffer();
+
+		assertArrayEquals((">" + json(MIXED, -1) + "\n").getBytes(UTF_8),
+		    copyOfRange(bytes.array(), bytes.arrayOffset(), bytes.arrayOffset() + bytes.position()));
+	}
+
+	@Test
+	public void completeTopLevelValuesAreWrittenToTheStream() throws IOException {
+		final List<String> writes = new ArrayList<>();
+		final OutputStream os = new OutputStream() {
+			@Override
+			public void write(int b) {
+				writes.add(new String(new byte[] { (byte) b }, UTF_8));
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				writes.add(new String(b, off, len, UTF_8));
+			}
+		};
+		final JsonWriter w = new JsonWriter(os);
+
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put("a", asList("é", asList(1L)));
+		w.appendMap(map).appendLf();
+		w.appendString("😀");
+
+		assertEquals(asList("{\"a\":[\"é\",[1]]}", "\n", "\"😀\""), writes);
+	}
+
+	@Test
+	public void nonFiniteNumbersAreRejected() {
+		for (final Number n : asList(Double.NaN, Double.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY)) {
+			assertThrows(IllegalArgumentException.class, () -> json(n, -1));
+		}
+	}
+
+	// the same value is written through every path, with default buffers
+	private static void assertEncoded(String string) throws IOException {
+		final byte[] expected = json(string, -1).getBytes(UTF_8);
+		assertArrayEquals(expected, streamed(string, 8_192, -1), string);
+		assertArrayEquals(expected, buffered(string, ByteBuffer.allocate(256)), string);
+		assertArrayEquals(expected, writtenThroughOutputStreamWriter(string), string);
+	}
+
+	private static String json(Object value, int indentLevel) throws IOException {
+		final StringWriter w = new StringWriter();
+		new JsonWriter(w, indentLevel).appendObject(value);
+		return w.toString();
+	}
+
+	private static byte[] writtenThroughOutputStreamWriter(Object value) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try (final Writer w = new OutputStreamWriter(os, UTF_8)) {
+			new JsonWriter(w).appendObject(value);
+		}
+		return os.toByteArray();
+	}
+
+	private static byte[] streamed(Object value, int bufferSize, int indentLevel) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		new JsonWriter(os, ByteBuffer.allocate(bufferSize), indentLevel).appendObject(value);
+		return os.toByteArray();
+	}
+
+	private static byte[] buffered(Object value, ByteBuffer buffer) throws IOException {
+		final ByteBuffer bytes = new JsonWriter(buffer).appendObject(value).buffer();
+		return copyOfRange(bytes.array(), bytes.arrayOffset(), bytes.arrayOffset() + bytes.position());
+	}
+}
@@ -0,0 +1,111 @@
+package fr.eimonku.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import fr.eimonku.json.JsonReader.InvalidJsonException;
+import fr.eimonku.json.JsonReader.Token;
+
+public class SymbolTableTest {
+	@Test
+	public void equalStringsResolveToTheSameInstance() {
+		final SymbolTable symbols = new SymbolTable();
+		final String key = symbol(symbols, "key");
+
+		assertEquals("key", key);
+		assertSame(key, symbol(symbols, "key"));
+		assertSame(key, symbols.symbol("a key!".toCharArray(), 2, 3));
+		final String empty = symbol(symbols, "");
+		assertSame(empty, symbol(symbols, ""));
+	}
+
+	@Test
+	public void stringsLongerThanMaxLengthAreNotCanonicalized() {
+		final SymbolTable symbols = new SymbolTable(16, 4);
+
+		assertSame(symbol(symbols, "abcd"), symbol(symbols, "abcd"));
+		final String longString = symbol(symbols, "abcde");
+		assertEquals("abcde", longString);
+		assertNotSame(longString, symbol(symbols, "abcde"));
+	}
+
+	@Test
+	public void stringsEvictTheStringOfTheirSlot() {
+		// a single slot, which every string takes in turn
+		final SymbolTable symbols = new SymbolTable(1, 32);
+		final String a = symbol(symbols, "a"), b = symbol(symbols, "b");
+
+		assertSame(b, symbol(symbols, "b"));
+		final String a2 = symbol(symbols, "a");
+		assertEquals(a, a2);
+		assertNotSame(a, a2);
+		assertSame(a2, symbol(symbols, "a"));
+	}
+
+	@Test
+	public void stringsWithTheSameHashAreNotConfused() {
+		final SymbolTable symbols = new SymbolTable();
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+
+		final String aa = symbol(symbols, "Aa");
+		assertEquals("BB", symbol(symbols, "BB"));
+		assertEquals("Aa", symbol(symbols, "Aa"));
+		assertNotSame(aa, symbol(symbols, "BB"));
+	}
+
+	@Test
+	public void fullTablesKeepCanonicalizingRecentStrings() {
+		final SymbolTable symbols = new SymbolTable(8, 32);
+		for (int i = 0; i < 1_000; ++i) {
+			symbol(symbols, "s" + i);
+		}
+
+		final String recent = symbol(symbols, "recent");
+		assertSame(recent, symbol(symbols, "recent"));
+	}
+
+	@Test
+	public void invalidSizesAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new SymbolTable(0, 32));
+		assertThrows(IllegalArgumentException.class, () -> new SymbolTable((1 << 30) + 1, 32));
+		assertThrows(IllegalArgumentException.class, () -> new SymbolTable(16, -1));
+	}
+
+	@Test
+	public void readersSharingATableReturnCanonicalKeys() throws IOException, InvalidJsonException {
+		final SymbolTable symbols = new SymbolTable();
+		final Map<String, Object> first = new JsonReader(new StringReader("{\"id\": 1, \"url\": \"a\"}")).symbols(symbols)
+		    .readMap();
+		// the second key spans the first two blocks of the reader (of 256 characters)
+		final StringBuilder sb = new StringBuilder("{\"id\": 2,");
+		while (sb.length() < 253) {
+			sb.append(' ');
+		}
+		sb.append("\"url\": \"b\"}");
+		final Map<String, Object> second = new JsonReader(new StringReader(sb.toString())).symbols(symbols).readMap();
+
+		final List<String> keys = new ArrayList<>(first.keySet());
+		keys.addAll(second.keySet());
+		assertSame(keys.get(0), keys.get(2));
+		assertSame(keys.get(1), keys.get(3));
+
+		final JsonReader r = new JsonReader(new StringReader("{\"url\": null}")).symbols(symbols);
+		assertEquals(Token.START_MAP, r.nextToken());
+		assertEquals(Token.NULL, r.nextToken());
+		assertSame(keys.get(1), r.currentName());
+	}
+
+	private static String symbol(SymbolTable symbols, String string) {
+		return symbols.symbol(string.toCharArray(), 0, string.length());
+	}
+}
@@ -0,0 +1,233 @@
+package fr.eimonku.wikimedia;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import fr.eimonku.json.JsonWriter;
+
+// the API is a stub engine answering queries like MediaWiki: titles starting with a lower case letter are normalized,
+// "Redirect to X" redirects to X, "Missing" pages do not exist, "Shared" pages only exist in the file repository
+public class MediaWikiApiTest {
+	private static final String SITE = "https://fr.wikipedia.org", OTHER_SITE = "https://en.wikipedia.org";
+	private static final Pattern QUERY_URL_PATTERN = Pattern.compile("(https?://[^/]+)/w/api\\.php\\?(.*)&titles=(.*)");
+
+	private final StubEngine engine = new StubEngine();
+	private final MediaWikiApi api = new MediaWikiApi(engine);
+
+	@Test
+	public void titlesAreQueriedInBatchesOf50BySite() {
+		final List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 120; ++i) {
+			urls.add(SITE + "/wiki/Page_" + i);
+		}
+		urls.add(OTHER_SITE + "/wiki/Page_0");
+
+		final Map<String, String> canonicalUrls = api.canonicalUrls(urls);
+
+		assertEquals(4, engine.queries.size());
+		assertEquals(asList(50, 50, 20, 1), asList(engine.queries.get(0).titles.size(),
+		    engine.queries.get(1).titles.size(), engine.queries.get(2).titles.size(), engine.queries.get(3).titles.size()));
+		assertEquals(asList(SITE, SITE, SITE, OTHER_SITE), asList(engine.queries.get(0).site, engine.queries.get(1).site,
+		    engine.queries.get(2).site, engine.queries.get(3).site));
+		assertEquals("action=query&format=json&redirects&prop=info&inprop=url", engine.queries.get(0).parameters);
+
+		assertEquals(121, canonicalUrls.size());
+		assertEquals(SITE + "/wiki/Page_119", canonicalUrls.get(SITE + "/wiki/Page_119"));
+		assertEquals(OTHER_SITE + "/wiki/Page_0", canonicalUrls.get(OTHER_SITE + "/wiki/Page_0"));
+	}
+
+	@Test
+	public void normalizationsAndRedirectsAreFollowed() {
+		final String normalizedUrl = SITE + "/wiki/france", redirectUrl = SITE + "/wiki/Redirect_to_France",
+		    normalizedRedirectUrl = SITE + "/wiki/redirect_to_France", encodedUrl = SITE + "/wiki/%C3%89tats-Unis",
+		    missingUrl = SITE + "/wiki/Missing", notPageUrl = SITE + "/w/index.php?title=France";
+
+		final Map<String, String> canonicalUrls = api.canonicalUrls(
+		    asList(normalizedUrl, redirectUrl, normalizedRedirectUrl, encodedUrl, missingUrl, notPageUrl));
+
+		assertEquals(1, engine.queries.size());
+		assertEquals(asList("france", "Redirect to France", "redirect to France", "États-Unis", "Missing"),
+		    engine.queries.get(0).titles);
+		assertEquals(SITE + "/wiki/France", canonicalUrls.get(normalizedUrl));
+		assertEquals(SITE + "/wiki/France", canonicalUrls.get(redirectUrl));
+		assertEquals(SITE + "/wiki/France", canonicalUrls.get(normalizedRedirectUrl));
+		assertEquals(SITE + "/wiki/États-Unis", canonicalUrls.get(encodedUrl));
+		assertFalse(canonicalUrls.containsKey(missingUrl));
+		assertFalse(canonicalUrls.containsKey(notPageUrl));
+	}
+
+	@Test
+	public void urlsOfTheSameTitleShareOneQueriedTitle() {
+		final Map<String, String> canonicalUrls = api
+		    .canonicalUrls(asList(SITE + "/wiki/Côte_d'Ivoire", SITE + "/wiki/C%C3%B4te_d%27Ivoire"));
+
+		assertEquals(1, engine.queries.size());
+		assertEquals(asList("Côte d'Ivoire"), engine.queries.get(0).titles);
+		assertEquals(SITE + "/wiki/Côte_d'Ivoire", canonicalUrls.get(SITE + "/wiki/C%C3%B4te_d%27Ivoire"));
+	}
+
+	@Test
+	public void failedBatchesAreLeftOut() {
+		engine.failingSite = OTHER_SITE;
+
+		final Map<String, String> canonicalUrls = api
+		    .canonicalUrls(asList(SITE + "/wiki/France", OTHER_SITE + "/wiki/France"));
+
+		assertEquals(2, engine.queries.size());
+		assertEquals(SITE + "/wiki/France", canonicalUrls.get(SITE + "/wiki/France"));
+		assertFalse(canonicalUrls.containsKey(OTHER_SITE + "/wiki/France"));
+	}
+
+	@Test
+	public void fullMediaUrlsAreQueriedInBatchesOf50() {
+		final List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 60; ++i) {
+			urls.add(SITE + "/wiki/Fichier:Flag_" + i + ".svg");
+		}
+
+		final Map<String, String> fullMediaUrls = api.fullMediaUrls(urls);
+
+		assertEquals(2, engine.queries.size());
+		assertEquals(asList(50, 10), asList(engine.queries.get(0).titles.size(), engine.queries.get(1).titles.size()));
+		assertEquals("action=query&format=json&redirects&prop=imageinfo&iiprop=url", engine.queries.get(0).parameters);
+		assertEquals(60, fullMediaUrls.size());
+		assertEquals("https://upload.wikimedia.org/Fichier:Flag_59.svg",
+		    fullMediaUrls.get(SITE + "/wiki/Fichier:Flag_59.svg"));
+	}
+
+	@Test
+	public void fullMediaUrlsOfSharedFilesAreResolved() {
+		final String redirectUrl = SITE + "/wiki/Redirect_to_Fichier:Flag.svg", sharedUrl = SITE + "/wiki/Shared.svg",
+		    missingUrl = SITE + "/wiki/Missing";
+
+		final Map<String, String> fullMediaUrls = api.fullMediaUrls(asList(redirectUrl, sharedUrl, missingUrl));
+
+		assertEquals(1, engine.queries.size());
+		assertEquals("https://upload.wikimedia.org/Fichier:Flag.svg", fullMediaUrls.get(redirectUrl));
+		assertEquals("https://upload.wikimedia.org/Shared.svg", fullMediaUrls.get(sharedUrl));
+		assertFalse(fullMediaUrls.containsKey(missingUrl));
+	}
+
+	private static class Query {
+		final String site, parameters;
+		final List<String> titles;
+
+		Query(String site, String parameters, List<String> titles) {
+			this.site = site;
+			this.parameters = parameters;
+			this.titles = titles;
+		}
+	}
+
+	private static class StubEngine implements HttpEngine {
+		final List<Query> queries = new ArrayList<>();
+		String failingSite;
+
+		@Override
+		public <T> T get(String url, Supplier<Map<String, String>> headers, ResponseHandler<T> handler)
+		    throws IOException {
+			final Matcher m = QUERY_URL_PATTERN.matcher(url);
+			if (!m.matches()) {
+				throw new IOException("unexpected url " + url);
+			}
+			final Query query = new Query(m.group(1), m.group(2),
+			    asList(URLDecoder.decode(m.group(3), "UTF-8").split("\\|")));
+			queries.add(query);
+			if (query.site.equals(failingSite)) {
+				throw new IOException("stub failure");
+			}
+
+			return handler.handle(
+			    new Response(url, 200, emptyMap(), new ByteArrayInputStream(response(query).getBytes(UTF_8))));
+		}
+
+		@Override
+		public <T> CompletableFuture<T> getAsync(String url, Supplier<Map<String, String>> headers,
+		    ResponseHandler<T> handler) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		private static String response(Query query) throws IOException {
+			final List<Object> normalized = new ArrayList<>(), redirects = new ArrayList<>();
+			final Map<String, Map<String, Object>> pagesByTitles = new LinkedHashMap<>();
+			for (String title : query.titles) {
+				if (Character.isLowerCase(title.charAt(0))) {
+					final String normalizedTitle = Character.toUpperCase(title.charAt(0)) + title.substring(1);
+					normalized.add(rename(title, normalizedTitle));
+					title = normalizedTitle;
+				}
+				if (title.startsWith("Redirect to ")) {
+					final String target = title.substring("Redirect to ".length());
+					redirects.add(rename(title, target));
+					title = target;
+				}
+
+				final Map<String, Object> page = new LinkedHashMap<>();
+				page.put("title", title);
+				if (title.equals("Missing") || title.startsWith("Shared")) {
+					page.put("missing", "");
+				} else if (!query.parameters.contains("prop=imageinfo")) {
+					page.put("canonicalurl", query.site + "/wiki/" + title.replace(' ', '_'));
+				}
+				if (!title.equals("Missing") && query.parameters.contains("prop=imageinfo")) {
+					page.put("imageinfo",
+					    asList(singletonMap("url", "https://upload.wikimedia.org/" + title.replace(' ', '_'))));
+				}
+				pagesByTitles.put(title, page);
+			}
+
+			// pages are keyed by their ids, negative for missing pages
+			final Map<String, Object> pages = new LinkedHashMap<>();
+			int id = 0;
+			for (final Map<String, Object> page : pagesByTitles.values()) {
+				pages.put(Integer.toString(page.containsKey("missing") ? -++id : ++id), page);
+			}
+
+			final Map<String, Object> queryMap = new LinkedHashMap<>();
+			if (!normalized.isEmpty()) {
+				queryMap.put("normalized", normalized);
+			}
+			if (!redirects.isEmpty()) {
+				queryMap.put("redirects", redirects);
+			}
+			queryMap.put("pages", pages);
+			final Map<String, Object> response = new LinkedHashMap<>();
+			response.put("batchcomplete", "");
+			response.put("query", queryMap);
+
+			final StringWriter w = new StringWriter();
+			new JsonWriter(w).appendMap(response);
+			return w.toString();
+		}
+
+		private static Map<String, Object> rename(String from, String to) {
+			final Map<String, Object> rename = new LinkedHashMap<>();
+			rename.put("from", from);
+			rename.put("to", to);
+			return rename;
+		}
+	}
+}
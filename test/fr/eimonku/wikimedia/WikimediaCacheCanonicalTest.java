@@ -0,0 +1,108 @@
+package fr.eimonku.wikimedia;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// pages of a local server declaring canonical urls: /wiki/Alias is an alias of /wiki/Page, /wiki/A and /wiki/B declare
+// each other canonical (and are only answered once both have been requested)
+public class WikimediaCacheCanonicalTest {
+	@TempDir
+	Path dir;
+
+	private HttpServer server;
+	private String site;
+	private final ExecutorService serverExecutor = newCachedThreadPool();
+	private final CountDownLatch cycleRequests = new CountDownLatch(2);
+	private final WikimediaMetrics metrics = new WikimediaMetrics();
+	private final FetchScheduler scheduler = new FetchScheduler();
+	private HttpClientEngine engine;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/wiki/", this::handle);
+		server.setExecutor(serverExecutor);
+		server.start();
+		site = "http://127.0.0.1:" + server.getAddress().getPort();
+		engine = new HttpClientEngine(scheduler, metrics);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		engine.close();
+		server.stop(0);
+		serverExecutor.shutdown();
+	}
+
+	@Test
+	public void aliasDocumentHasCanonicalBaseUri() {
+		try (final WikimediaCache cache = new WikimediaCache(dir, scheduler, engine, metrics)) {
+			final Document document = cache.get(site + "/wiki/Alias");
+
+			assertEquals(site + "/wiki/Page", document.baseUri());
+			assertEquals(site + "/wiki/Page#section", document.select("a").first().absUrl("href"));
+			assertEquals(site + "/wiki/Page", cache.canonicalUrl(site + "/wiki/Alias"));
+		}
+	}
+
+	@Test
+	public void pagesCanonicalToEachOtherDoNotDeadlock() {
+		try (final WikimediaCache cache = new WikimediaCache(dir, scheduler, engine, metrics)) {
+			assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+				final CompletableFuture<Document> a = CompletableFuture.supplyAsync(() -> cache.get(site + "/wiki/A"));
+				final CompletableFuture<Document> b = CompletableFuture.supplyAsync(() -> cache.get(site + "/wiki/B"));
+				a.get(10, SECONDS);
+				b.get(10, SECONDS);
+			});
+
+			assertEquals(cache.canonicalUrl(site + "/wiki/A"), cache.canonicalUrl(site + "/wiki/B"));
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath();
+		final String canonicalPath;
+		if (path.equals("/wiki/Alias")) {
+			canonicalPath = "/wiki/Page";
+		} else if (path.equals("/wiki/A") || path.equals("/wiki/B")) {
+			canonicalPath = path.equals("/wiki/A") ? "/wiki/B" : "/wiki/A";
+			cycleRequests.countDown();
+			try {
+				cycleRequests.await(5, SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			canonicalPath = path;
+		}
+
+		final byte[] body = ("<html><head><link rel=\"canonical\" href=\"" + site + canonicalPath
+		    + "\"></head><body><a href=\"#section\">section</a></body></html>").getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (final OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+}
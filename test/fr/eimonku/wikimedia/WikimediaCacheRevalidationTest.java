@@ -0,0 +1,132 @@
+package fr.eimonku.wikimedia;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// stale documents are revalidated against a local server, which answers 304 to a request matching its current ETag
+public class WikimediaCacheRevalidationTest {
+	private static final Duration TTL = Duration.ofMillis(200);
+	private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+	@TempDir
+	Path dir;
+
+	private HttpServer server;
+	private String url;
+	private volatile String title = "v1", etag = "\"v1\"";
+	private volatile String ifNoneMatch, ifModifiedSince;
+	private final AtomicInteger requests = new AtomicInteger(), extractions = new AtomicInteger();
+	private final WikimediaMetrics metrics = new WikimediaMetrics();
+	private final FetchScheduler scheduler = new FetchScheduler();
+	private HttpClientEngine engine;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/wiki/Page", this::handle);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/wiki/Page";
+		engine = new HttpClientEngine(scheduler, metrics);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		engine.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void notModifiedKeepsBodyAndExtractions() throws InterruptedException {
+		try (final WikimediaCache cache = cache()) {
+			assertEquals("v1", extractTitle(cache));
+			Thread.sleep(2 * TTL.toMillis());
+
+			assertEquals("v1", extractTitle(cache));
+			assertEquals(2, requests.get());
+			assertEquals("\"v1\"", ifNoneMatch);
+			assertEquals(LAST_MODIFIED, ifModifiedSince);
+			assertEquals(1, extractions.get());
+			assertEquals("v1", cache.get(url).title());
+		}
+	}
+
+	@Test
+	public void changedBodyReplacesBodyAndInvalidatesExtractions() throws InterruptedException {
+		try (final WikimediaCache cache = cache()) {
+			assertEquals("v1", extractTitle(cache));
+			title = "v2";
+			etag = "\"v2\"";
+			Thread.sleep(2 * TTL.toMillis());
+
+			assertEquals("v2", extractTitle(cache));
+			assertEquals("\"v1\"", ifNoneMatch);
+			assertEquals(LAST_MODIFIED, ifModifiedSince);
+			assertEquals(2, extractions.get());
+			assertEquals("v2", cache.get(url).title());
+		}
+	}
+
+	@Test
+	public void revalidatedDocumentIsKeptAfterReopening() throws InterruptedException {
+		try (final WikimediaCache cache = cache()) {
+			assertEquals("v1", extractTitle(cache));
+			Thread.sleep(2 * TTL.toMillis());
+			assertEquals("v1", cache.get(url).title());
+		}
+
+		// without ttl, so that the document is not revalidated again
+		try (final WikimediaCache cache = new WikimediaCache(dir, scheduler, engine, metrics)) {
+			assertEquals("v1", extractTitle(cache));
+			assertEquals(2, requests.get());
+			assertEquals(1, extractions.get());
+		}
+	}
+
+	private WikimediaCache cache() {
+		return new WikimediaCache(dir, scheduler, engine, TTL, metrics);
+	}
+
+	private String extractTitle(WikimediaCache cache) {
+		return cache.extract(url, "title", 1, document -> {
+			extractions.incrementAndGet();
+			return document.title();
+		});
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+		final String etag = this.etag;
+		exchange.getResponseHeaders().set("ETag", etag);
+		exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+		if (etag.equals(ifNoneMatch)) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		final byte[] body = ("<html><head><title>" + title + "</title></head><body></body></html>").getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (final OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package fr.eimonku.wikimedia;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.readAllBytes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// media files are downloaded from a local server serving the bodies put in files
+public class WikimediaResourcesTest {
+	private static final String SVG = "<svg xmlns=\"http://www.w3.org/2000/svg\">\n  <!-- comment -->\n  <rect"
+	    + " width=\"1.23456\" height=\"2\"/>\n</svg>\n";
+	// the internal entity references an undefined one, which the optimizer rejects
+	private static final String ENTITY_SVG = "<!DOCTYPE svg [<!ENTITY a \"&b;\">]>\n"
+	    + "<svg xmlns=\"http://www.w3.org/2000/svg\"><text>&a;</text></svg>\n";
+
+	@TempDir
+	Path dir;
+
+	private HttpServer server;
+	private String site;
+	private final Map<String, String> files = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final WikimediaMetrics metrics = new WikimediaMetrics();
+	private HttpClientEngine engine;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+		site = "http://127.0.0.1:" + server.getAddress().getPort();
+		engine = new HttpClientEngine(new FetchScheduler(), metrics);
+		createDirectories(dir.resolve("media"));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		engine.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void svgFilesAreOptimized() throws IOException {
+		files.put("/a.svg", SVG);
+		try (final WikimediaResources resources = resources()) {
+			resources.createSvgFile(site + "/a.svg", "a.svg");
+		}
+
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><svg xmlns=\"http://www.w3.org/2000/svg\"><rect"
+		    + " width=\"1.235\" height=\"2\"></rect></svg>", new String(readAllBytes(dir.resolve("media/a.svg")), UTF_8));
+	}
+
+	@Test
+	public void filesTheOptimizerRejectsAreStoredAsDownloaded() throws IOException {
+		files.put("/entities.svg", ENTITY_SVG);
+		try (final WikimediaResources resources = resources()) {
+			resources.createSvgFile(site + "/entities.svg", "entities.svg");
+		}
+
+		assertEquals(ENTITY_SVG, new String(readAllBytes(dir.resolve("media/entities.svg")), UTF_8));
+	}
+
+	@Test
+	public void failedDownloadsAreNotKept() throws IOException, InterruptedException {
+		try (final WikimediaResources resources = resources()) {
+			resources.createSvgFile(site + "/late.svg", "first.svg");
+			while (requests.get() == 0) {
+				Thread.sleep(10);
+			}
+			// the 404 fails the download once its response has been handled
+			Thread.sleep(500);
+
+			files.put("/late.svg", SVG);
+			resources.createSvgFile(site + "/late.svg", "second.svg");
+			assertThrows(RuntimeException.class, resources::close);
+		}
+
+		assertEquals(2, requests.get());
+		assertTrue(isRegularFile(dir.resolve("media/second.svg")));
+		assertFalse(isRegularFile(dir.resolve("media/first.svg")));
+	}
+
+	private WikimediaResources resources() {
+		return new WikimediaResources(dir.resolve("media"), dir.resolve("store"), engine, metrics)
+		    .svgOptimizer(new SvgOptimizer());
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		final String file = files.get(exchange.getRequestURI().getPath());
+		if (file == null) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+
+		final byte[] body = file.getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "image/svg+xml");
+		exchange.sendResponseHeaders(200, body.length);
+		try (final OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+}